@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.fmradio;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Recorder math done for every encoder input buffer
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class AudioRecorderBenchmark {
+    // 16 bit stereo at 44.1kHz, in bytes per us
+    private static final float RATE = 44100 * 2 * 2 * 1e-6f;
+    private static final int CHUNK_SIZE = 3528;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private long mSink;
+
+    @Test
+    public void presentationTimestamp() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        long position = 0;
+        while (state.keepRunning()) {
+            mSink += AudioRecorder.computePresentationTimestampUs(position, RATE);
+            position += CHUNK_SIZE;
+        }
+    }
+}
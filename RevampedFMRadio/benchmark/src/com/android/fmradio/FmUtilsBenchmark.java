@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.fmradio;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Band plan lookups done on every tune, seek and UI step
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class FmUtilsBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    // keeps the results alive
+    private long mSink;
+
+    @Test
+    public void computeChannel() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int channel = 0;
+        while (state.keepRunning()) {
+            mSink += FmUtils.computeChannel(FmUtils.computeChannelStation(channel));
+            channel = (channel + 1) % FmUtils.getChannelCount();
+        }
+    }
+
+    @Test
+    public void computeIncreaseStation() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int station = FmUtils.computeChannelStation(0);
+        while (state.keepRunning()) {
+            station = FmUtils.computeIncreaseStation(station);
+            mSink += station;
+        }
+    }
+
+    @Test
+    public void formatStation() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int channel = 0;
+        while (state.keepRunning()) {
+            mSink += FmUtils.formatStation(FmUtils.computeChannelStation(channel)).length();
+            channel = (channel + 1) % FmUtils.getChannelCount();
+        }
+    }
+}
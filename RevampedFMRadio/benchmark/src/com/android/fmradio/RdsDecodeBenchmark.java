@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.fmradio;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoding of the PS and RT bytes, done on every RDS event. Unchanged and
+ * rotating PS must not allocate.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class RdsDecodeBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private static final int STATION = 1003;
+
+    // a station rotating its PS
+    private final byte[][] mPs = new byte[][] {
+        bytes("RADIO 1 "), bytes("THE HITS"), bytes("  NEWS  ")
+    };
+    private final byte[][] mRt = new byte[][] {
+        bytes(String.format("%-64s", "Now playing: Artist - A rather long title")),
+        bytes(String.format("%-64s", "Up next: Another artist - Another title"))
+    };
+
+    private long mSink;
+
+    @Test
+    public void decodeUnchangedPs() {
+        RdsTextDecoder decoder = new RdsTextDecoder(true);
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mSink += decoder.decode(STATION, mPs[0]).length();
+        }
+    }
+
+    @Test
+    public void decodeRotatingPs() {
+        RdsTextDecoder decoder = new RdsTextDecoder(true);
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mSink += decoder.decode(STATION, mPs[i]).length();
+            i = (i + 1) % mPs.length;
+        }
+    }
+
+    @Test
+    public void decodeChangingRt() {
+        RdsTextDecoder decoder = new RdsTextDecoder(false);
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            mSink += decoder.decode(STATION, mRt[i]).length();
+            i = (i + 1) % mRt.length;
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.fmradio;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One render loop chunk handed from the capture side to the recorder ring
+ * buffer and drained by the encoder side, fed by the simulated tuner.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class RenderHandoffBenchmark {
+    // about 20ms of 16 bit stereo at 44.1kHz
+    private static final int CHUNK_SIZE = 3528;
+    private static final int FRAME_SIZE = 4;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final AudioRecorder.PcmSource mSource =
+            new SimulatedFmTuner(new int[0], new int[0], 0, 0).getPcmSource();
+    private final PcmRingBuffer mRing = new PcmRingBuffer(CHUNK_SIZE * 4, FRAME_SIZE,
+            PcmRingBuffer.OVERFLOW_DROP_OLDEST);
+    private final ByteBuffer mDrain = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    @Test
+    public void heapSlabChunk() {
+        PcmBufferPool pool = new PcmBufferPool(2, CHUNK_SIZE, false);
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            PcmBufferPool.Slab slab = pool.obtain();
+            slab.mBuffer.limit(CHUNK_SIZE);
+            slab.mSize = mSource.read(slab.mBuffer);
+            mRing.write(slab.mData, 0, slab.mSize);
+            slab.release();
+            drain();
+        }
+    }
+
+    @Test
+    public void directCaptureChunk() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ByteBuffer region = mRing.beginWrite(CHUNK_SIZE);
+            mRing.endWrite(mSource.read(region));
+            drain();
+        }
+    }
+
+    private void drain() {
+        mDrain.clear();
+        mRing.read(mDrain);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.fmradio;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Reconciliation of the stored stations with a scan result
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class StationDiffBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    // a crowded band: every other channel stored, every third one found
+    private final int[] mSearched = stations(0, 2);
+    private final int[] mFavorites = stations(1, 10);
+    private final int[] mScanned = stations(0, 3);
+
+    private long mSink;
+
+    @Test
+    public void computeKeepingFound() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mSink += StationDiff.compute(mSearched, mFavorites, mScanned, false).mScanned;
+        }
+    }
+
+    @Test
+    public void computeClean() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mSink += StationDiff.compute(mSearched, mFavorites, mScanned, true).mScanned;
+        }
+    }
+
+    private static int[] stations(int first, int every) {
+        int count = (FmUtils.getChannelCount() - first + every - 1) / every;
+        int[] stations = new int[count];
+        for (int i = 0; i < count; i++) {
+            stations[i] = FmUtils.computeChannelStation(first + i * every);
+        }
+        return stations;
+    }
+}
@@ -101,6 +101,8 @@ IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 #define FM_RX_RDS_GRP_RT_PLUS_EBL 128
 
 #define FREQ_MULT 1000
+//KHz per station unit of the app, Eg, 875 * 100 --> 87500
+#define STATION_MULT 100
 #define HYBRID_SRCH_DATA_LEN 3
 #define HYBRID_SRCH_DATA_INDEX 3
 #define HYBRID_SRCH_MODE 0x40
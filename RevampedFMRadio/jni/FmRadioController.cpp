@@ -156,7 +156,7 @@ long FmRadioController :: GetChannel
     return freq;
 }
 
-int FmRadioController ::Pwr_Up(int freq)
+int FmRadioController ::Pwr_Up(int freq, long band, long spacing, long emphasis)
 {
     int ret = FM_SUCCESS;
     struct timespec ts;
@@ -201,21 +201,8 @@ int FmRadioController ::Pwr_Up(int freq)
                     ALOGI("Unlocked mutex & timedout or condition satisfied\n");
                     pthread_mutex_unlock(&mutex_turn_on_cond);
                     if (cur_fm_state == FM_ON) {//after READY event
-                        ret = SetBand(BAND_87500_108000);
+                        ret = Set_Region(band, spacing, emphasis);
                         if (ret != FM_SUCCESS) {
-                            ALOGE("set band failed\n");
-                            ret = FM_FAILURE;
-                            goto exit;
-                        }
-                        ret = SetChannelSpacing(CHAN_SPACE_100);
-                        if (ret != FM_SUCCESS) {
-                            ALOGE("set channel spacing failed\n");
-                            ret = FM_FAILURE;
-                            goto exit;
-                        }
-                        ret = SetDeConstant(DE_EMP50);
-                        if (ret != FM_SUCCESS) {
-                            ALOGE("set Emphasis failed\n");
                             ret = FM_FAILURE;
                             goto exit;
                         }
@@ -524,8 +511,8 @@ int FmRadioController :: Get_ps(char *ps, int *ps_len)
                     ps[i] = raw_rds[PS_DATA_OFFSET_IND + i];
                     if (ps[i] == 0) {
                         break;
-                    } else if((ps[len] <= LAST_CTRL_CHAR) ||
-                              (ps[len] >= FIRST_NON_PRNT_CHAR)) {
+                    } else if(((unsigned char)ps[len] <= LAST_CTRL_CHAR) ||
+                              ((unsigned char)ps[len] == FIRST_NON_PRNT_CHAR)) {
                         ps[i] = SPACE_CHAR;
                         continue;
                     }
@@ -565,8 +552,8 @@ int FmRadioController :: Get_rt(char *rt, int *rt_len)
                 for(len = 0; len < raw_rds[RT_LEN_IND]; len++) {
                    rt[len] = raw_rds[RT_DATA_OFFSET_IND + len];
                    ALOGI("Rt byte[%d]: %d\n", len, rt[len]);
-                   if ((rt[len] <= LAST_CTRL_CHAR) ||
-                       (rt[len] >= FIRST_NON_PRNT_CHAR)) {
+                   if (((unsigned char)rt[len] <= LAST_CTRL_CHAR) ||
+                       ((unsigned char)rt[len] == FIRST_NON_PRNT_CHAR)) {
                        rt[len] = SPACE_CHAR;
                        continue;
                    }
@@ -988,6 +975,35 @@ int FmRadioController :: SetChannelSpacing
     return ret;
 }
 
+//set band, channel spacing and de-emphasis of a region
+int FmRadioController :: Set_Region
+(
+    long band, long spacing, long emphasis
+)
+{
+    int ret;
+
+    if (cur_fm_state != FM_ON) {
+        //applied by the next power up
+        return FM_SUCCESS;
+    }
+    ret = SetBand(band);
+    if (ret != FM_SUCCESS) {
+        ALOGE("set band failed\n");
+        return ret;
+    }
+    ret = SetChannelSpacing(spacing);
+    if (ret != FM_SUCCESS) {
+        ALOGE("set channel spacing failed\n");
+        return ret;
+    }
+    ret = SetDeConstant(emphasis);
+    if (ret != FM_SUCCESS) {
+        ALOGE("set Emphasis failed\n");
+    }
+    return ret;
+}
+
 int FmRadioController :: SetStereo
 (
 )
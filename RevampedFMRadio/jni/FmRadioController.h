@@ -99,7 +99,7 @@ class FmRadioController
        ~FmRadioController();
        int open_dev(void);
        int close_dev();
-       int Pwr_Up(int freq);
+       int Pwr_Up(int freq, long band, long spacing, long emphasis);
        int Pwr_Down(void);
        long GetChannel(void);
        int TuneChannel(long);
@@ -115,6 +115,7 @@ class FmRadioController
        int Set_mute(bool mute);
        int SetBand(long);
        int SetChannelSpacing(long);
+       int Set_Region(long band, long spacing, long emphasis);
        int Stop_Scan_Seek(void);
        int Turn_On_Off_Rds(bool onoff);
        int Antenna_Switch(int antenna);
@@ -37,6 +37,10 @@ IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 #include "FM_Const.h"
 
 static FmRadioController * pFMRadio;
+//band plan set by the app, applied on every power up
+static long band_type = BAND_87500_108000;
+static long chan_spacing = CHAN_SPACE_100;
+static long de_emphasis = DE_EMP50;
 
 jboolean OpenFd(JNIEnv *env __unused, jobject thiz __unused)
 {
@@ -63,18 +67,18 @@ jboolean CloseFd(JNIEnv *env __unused, jobject thiz __unused)
     return ret? JNI_FALSE: JNI_TRUE;
 }
 
-jboolean TurnOn(JNIEnv *env __unused, jobject thiz __unused, jfloat freq)
+jboolean TurnOn(JNIEnv *env __unused, jobject thiz __unused, jint station)
 {
     int ret = 0;
     int tmp_freq;
 
-    ALOGI("%s, [freq=%d]\n", __func__, (int)freq);
-    tmp_freq = (int)(freq * FREQ_MULT);   //Eg, 87.5 * 1000 --> 87500
+    ALOGI("%s, [station=%d]\n", __func__, station);
+    tmp_freq = station * STATION_MULT;   //Eg, 875 * 100 --> 87500
     if (!pFMRadio) {
         pFMRadio = new FmRadioController();
     }
     if (pFMRadio)
-        ret = pFMRadio->Pwr_Up(tmp_freq);
+        ret = pFMRadio->Pwr_Up(tmp_freq, band_type, chan_spacing, de_emphasis);
     else
         ret = JNI_FALSE;
 
@@ -100,12 +104,12 @@ jboolean TurnOff(JNIEnv *env __unused, jobject thiz __unused,
     return ret?JNI_FALSE:JNI_TRUE;
 }
 
-jboolean SetFreq(JNIEnv *env __unused, jobject thiz __unused, jfloat freq)
+jboolean SetFreq(JNIEnv *env __unused, jobject thiz __unused, jint station)
 {
     int ret = 0;
     int tmp_freq;
 
-    tmp_freq = (int)(freq * FREQ_MULT);        //Eg, 87.5 * 10 --> 875
+    tmp_freq = station * STATION_MULT;        //Eg, 875 * 100 --> 87500
     if (pFMRadio)
         ret = pFMRadio->TuneChannel(tmp_freq);
     else
@@ -115,23 +119,39 @@ jboolean SetFreq(JNIEnv *env __unused, jobject thiz __unused, jfloat freq)
     return ret?JNI_FALSE:JNI_TRUE;
 }
 
-jfloat Seek(JNIEnv *env __unused, jobject thiz __unused, jfloat freq, jboolean isUp)
+jint Seek(JNIEnv *env __unused, jobject thiz __unused, jint station, jboolean isUp)
 {
     int ret = JNI_FALSE;
-    float val = freq;
+    int val = station;
 
     if (pFMRadio) {
         ret = pFMRadio->Set_mute(true);
         ALOGD("%s, [mute] [ret=%d]\n", __func__, ret);
         ret = pFMRadio->Seek((int)isUp);
-        ALOGD("%s, [freq=%f] [ret=%d]\n", __func__, freq, ret);
+        ALOGD("%s, [station=%d] [ret=%d]\n", __func__, station, ret);
         if (ret > 0)
-            val = (float)ret/FREQ_MULT;   //Eg, 8755 / 100 --> 87.55
+            val = ret / STATION_MULT;   //Eg, 87500 / 100 --> 875
     }
 
     return val;
 }
 
+jboolean SetRegion(JNIEnv *env __unused, jobject thiz __unused, jint band,
+        jint spacing, jint emphasis)
+{
+    int ret = 0;
+
+    band_type = band;
+    chan_spacing = spacing;
+    de_emphasis = emphasis;
+    if (pFMRadio)
+        ret = pFMRadio->Set_Region(band_type, chan_spacing, de_emphasis);
+
+    ALOGD("%s, [band=%d] [spacing=%d] [emphasis=%d] [ret=%d]\n", __func__,
+            band, spacing, emphasis, ret);
+    return ret?JNI_FALSE:JNI_TRUE;
+}
+
 jshortArray ScanList(JNIEnv *env, jobject thiz __unused)
 {
     int ret = 0;
@@ -374,24 +394,25 @@ jboolean SetNormalPowerMode(JNIEnv *env __unused, jobject thiz __unused)
 static const char *classPathNameFM = "com/android/fmradio/FmNative";
 
 static JNINativeMethod gMethods[] = {
-    {"openDev",       "()Z",   (void*)OpenFd },
-    {"closeDev",      "()Z",   (void*)CloseFd },
-    {"powerUp",       "(F)Z",  (void*)TurnOn },
-    {"powerDown",     "(I)Z",  (void*)TurnOff },
-    {"tune",          "(F)Z",  (void*)SetFreq },
-    {"seek",          "(FZ)F", (void*)Seek },
-    {"autoScan",      "()[S",  (void*)ScanList },
-    {"stopScan",      "()Z",   (void*)StopSrch },
-    {"setRds",        "(Z)I",  (void*)SetRds  },
-    {"readRds",       "()S",   (void*)GetRdsEvent },
-    {"getPs",         "()[B",  (void*)GetPsText },
-    {"getLrText",     "()[B",  (void*)GetRtText},
-    {"activeAf",      "()S",   (void*)GetAfFreq},
-    {"setMute",       "(Z)I",  (void*)SetMute},
-    {"isRdsSupport",  "()I",   (void*)IsRdsSupport},
-    {"switchAntenna", "(I)I",  (void*)SetAntenna},
-    {"setLowPowerMode",     "()Z",  (void*)SetLowPowerMode},
-    {"setNormalPowerMode",  "()Z",  (void*)SetNormalPowerMode},
+    {"nativeOpenDev",             "()Z",  (void*)OpenFd },
+    {"nativeCloseDev",            "()Z",  (void*)CloseFd },
+    {"nativePowerUp",             "(I)Z", (void*)TurnOn },
+    {"nativePowerDown",           "(I)Z", (void*)TurnOff },
+    {"nativeTune",                "(I)Z", (void*)SetFreq },
+    {"nativeSeek",                "(IZ)I",(void*)Seek },
+    {"nativeSetRegion",           "(III)Z",(void*)SetRegion },
+    {"nativeAutoScan",            "()[S", (void*)ScanList },
+    {"nativeStopScan",            "()Z",  (void*)StopSrch },
+    {"nativeSetRds",              "(Z)I", (void*)SetRds  },
+    {"nativeReadRds",             "()S",  (void*)GetRdsEvent },
+    {"nativeGetPs",               "()[B", (void*)GetPsText },
+    {"nativeGetLrText",           "()[B", (void*)GetRtText},
+    {"nativeActiveAf",            "()S",  (void*)GetAfFreq},
+    {"nativeSetMute",             "(Z)I", (void*)SetMute},
+    {"nativeIsRdsSupport",        "()I",  (void*)IsRdsSupport},
+    {"nativeSwitchAntenna",       "(I)I", (void*)SetAntenna},
+    {"nativeSetLowPowerMode",     "()Z",  (void*)SetLowPowerMode},
+    {"nativeSetNormalPowerMode",  "()Z",  (void*)SetNormalPowerMode},
 };
 
 int register_android_hardware_fm(JNIEnv* env __unused)
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of the rendered frequency bitmaps, keyed by station
+ * and size class, evicted in least recently used order once their bytes
+ * exceed the configured budget.
+ */
+class ArtworkCache {
+    private static final String TAG = "ArtworkCache";
+
+    // Media notification artwork, see FmUtils#createNotificationArtwork
+    static final int SIZE_ARTWORK = 0;
+    // Recording notification icon, see FmUtils#createNotificationLargeIcon
+    static final int SIZE_LARGE_ICON = 1;
+    private static final int SIZE_CLASS_COUNT = 2;
+
+    private static ArtworkCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<Integer, Bitmap> mBitmaps;
+    // guarded by this
+    private Thread mPrerenderThread = null;
+
+    private ArtworkCache(Context context) {
+        mContext = context;
+        mBitmaps = new LruCache<Integer, Bitmap>(
+                context.getResources().getInteger(R.integer.config_artworkCacheBytes)) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * @param context Any context, the application context is kept
+     *
+     * @return The process-wide cache
+     */
+    static synchronized ArtworkCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArtworkCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get the bitmap of a station, rendering it on a miss
+     *
+     * @param station The station frequency
+     * @param sizeClass {@link #SIZE_ARTWORK} or {@link #SIZE_LARGE_ICON}
+     *
+     * @return The bitmap
+     */
+    Bitmap get(int station, int sizeClass) {
+        Integer key = station * SIZE_CLASS_COUNT + sizeClass;
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = render(station, sizeClass);
+            mBitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Render the notification artwork of every favorite in the background,
+     * as far as the budget allows
+     */
+    synchronized void prerenderFavorites() {
+        if (mPrerenderThread != null) {
+            return;
+        }
+        mPrerenderThread = new Thread("FmArtworkPrerender") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                int rendered = 0;
+                for (int station : StationCache.getInstance(mContext).getFavoriteStations()) {
+                    Integer key = station * SIZE_CLASS_COUNT + SIZE_ARTWORK;
+                    if (mBitmaps.get(key) != null) {
+                        continue;
+                    }
+                    Bitmap bitmap = render(station, SIZE_ARTWORK);
+                    if (mBitmaps.size() + bitmap.getAllocationByteCount()
+                            > mBitmaps.maxSize()) {
+                        // do not evict bitmaps in use for ones maybe never shown
+                        break;
+                    }
+                    mBitmaps.put(key, bitmap);
+                    rendered++;
+                }
+                Log.d(TAG, "prerenderFavorites, rendered " + rendered + ", " + ArtworkCache.this);
+                synchronized (ArtworkCache.this) {
+                    mPrerenderThread = null;
+                }
+            }
+        };
+        mPrerenderThread.start();
+    }
+
+    private Bitmap render(int station, int sizeClass) {
+        String text = FmUtils.formatStation(station);
+        return sizeClass == SIZE_LARGE_ICON
+                ? FmUtils.createNotificationLargeIcon(mContext, text)
+                : FmUtils.createNotificationArtwork(mContext, text);
+    }
+
+    @Override
+    public String toString() {
+        return "ArtworkCache{bytes=" + mBitmaps.size() + "/" + mBitmaps.maxSize()
+                + ", hits=" + mBitmaps.hitCount() + ", misses=" + mBitmaps.missCount()
+                + ", evictions=" + mBitmaps.evictionCount() + "}";
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time, process CPU time and render wakeups spent in each audio path, to
+ * compare the hardware patch with software rendering.
+ */
+class AudioPathStats {
+    static final int PATH_NONE = 0;
+    static final int PATH_PATCH = 1;
+    static final int PATH_RENDER = 2;
+    private static final String[] PATH_NAMES = new String[] {
+        "none", "patch", "render"
+    };
+
+    // guarded by this
+    private int mPath = PATH_NONE;
+    private long mPathStart = SystemClock.uptimeMillis();
+    private long mPathCpuStart = Process.getElapsedCpuTime();
+    private final long[] mTimeMs = new long[PATH_NAMES.length];
+    private final long[] mCpuMs = new long[PATH_NAMES.length];
+    private final long[] mWakeups = new long[PATH_NAMES.length];
+    // Counted by the render thread, folded into mWakeups on a switch
+    private final AtomicLong mPendingWakeups = new AtomicLong();
+
+    /**
+     * Switch to another path
+     *
+     * @param path One of the PATH_ constants
+     */
+    synchronized void setPath(int path) {
+        if (path == mPath) {
+            return;
+        }
+        foldLocked();
+        mPath = path;
+    }
+
+    /**
+     * The render thread woke up to copy a chunk
+     */
+    void onRenderWakeup() {
+        mPendingWakeups.incrementAndGet();
+    }
+
+    private void foldLocked() {
+        long now = SystemClock.uptimeMillis();
+        long cpu = Process.getElapsedCpuTime();
+        long wakeups = mPendingWakeups.getAndSet(0);
+        mTimeMs[mPath] += now - mPathStart;
+        mCpuMs[mPath] += cpu - mPathCpuStart;
+        mWakeups[mPath] += wakeups;
+        mPathStart = now;
+        mPathCpuStart = cpu;
+    }
+
+    @Override
+    public synchronized String toString() {
+        foldLocked();
+        StringBuilder sb = new StringBuilder("AudioPathStats{current=")
+                .append(PATH_NAMES[mPath]);
+        for (int path = PATH_PATCH; path < PATH_NAMES.length; path++) {
+            long minutes = Math.max(1, mTimeMs[path] / 60000);
+            sb.append(", ").append(PATH_NAMES[path]).append(": ")
+                    .append(mTimeMs[path] / 1000).append("s cpu=")
+                    .append(mTimeMs[path] > 0 ? mCpuMs[path] * 100 / mTimeMs[path] : 0)
+                    .append("% (").append(mCpuMs[path] / minutes).append("ms/min) wakeups=")
+                    .append(mWakeups[path] / minutes).append("/min");
+        }
+        return sb.append('}').toString();
+    }
+}
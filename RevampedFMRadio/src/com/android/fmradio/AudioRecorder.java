@@ -30,7 +30,6 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
 import java.util.concurrent.Semaphore;
 
 class AudioRecorder extends HandlerThread implements Handler.Callback {
@@ -48,7 +47,10 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
     private MediaMuxer mMuxer;
     private MediaCodec mCodec;
     private MediaFormat mRequestedFormat;
-    private LinkedList<Sample> mQueue = new LinkedList<>();
+    // PCM handed over by the render thread, drained straight into the codec
+    private final PcmRingBuffer mRing;
+    // set while the codec holds an input buffer and waits for PCM
+    private volatile boolean mWaitingForInput;
     private MediaFormat mOutFormat;
     private int mMuxerTrack;
     private float mRate; // bytes per us
@@ -61,10 +63,13 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
     private Handler mCallbackHandler;
     private Callback mCallback;
 
-    AudioRecorder(AudioFormat format, File filePath) {
+    AudioRecorder(AudioFormat format, File filePath, int overflowPolicy) {
         super("AudioRecorder Thread");
         mFilePath = filePath;
         mInputFormat = format;
+        // about one second of audio
+        mRing = new PcmRingBuffer(format.getSampleRate() * format.getFrameSizeInBytes(),
+                format.getFrameSizeInBytes(), overflowPolicy);
 
         start();
 
@@ -78,18 +83,63 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
     }
 
     /**
-     * Encode bytes of audio to file
+     * Encode bytes of audio to file. The data is copied into the ring buffer,
+     * so the slab can be recycled as soon as this returns.
      *
-     * @param bytes - PCM inbut buffer
+     * @param slab - PCM input buffer
      */
-    public void encode(byte[] bytes) {
+    public void encode(PcmBufferPool.Slab slab) {
         if (mFinished) {
             Log.w(TAG, "encode() called after stopped");
             return;
         }
-        Sample s = new Sample();
-        s.bytes = bytes;
-        mHandler.obtainMessage(MSG_ENCODE, s).sendToTarget();
+        if (slab.mData != null) {
+            mRing.write(slab.mData, 0, slab.mSize);
+        } else {
+            // direct slab, no backing array
+            slab.mBuffer.limit(slab.mSize).position(0);
+            mRing.write(slab.mBuffer);
+        }
+        if (mWaitingForInput) {
+            // the codec ran dry, kick the encoder thread
+            mWaitingForInput = false;
+            mHandler.sendEmptyMessage(MSG_ENCODE);
+        }
+    }
+
+    /**
+     * Let the source produce PCM straight into the ring buffer, without any
+     * intermediate copy.
+     *
+     * @param source Fills the given region with PCM
+     * @param length The number of bytes wanted
+     *
+     * @return The number of bytes captured, or -1 if the ring has no room and
+     *         the caller has to read the audio somewhere else
+     */
+    public int capture(PcmSource source, int length) {
+        if (mFinished) {
+            Log.w(TAG, "capture() called after stopped");
+            return -1;
+        }
+        ByteBuffer region = mRing.beginWrite(length);
+        if (!region.hasRemaining()) {
+            return -1;
+        }
+        int captured = source.read(region);
+        mRing.endWrite(captured);
+        if (captured > 0 && mWaitingForInput) {
+            mWaitingForInput = false;
+            mHandler.sendEmptyMessage(MSG_ENCODE);
+        }
+        return captured;
+    }
+
+    /**
+     * Get the ring buffer counters for debugging
+     */
+    public String getRingBufferStats() {
+        return mRing.toString();
     }
 
     /**
@@ -103,6 +153,7 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
         }
 
         mFinished = true;
+        mRing.close();
         Log.d(TAG, "Stopping");
         Semaphore done = new Semaphore(0);
         mHandler.obtainMessage(MSG_STOP, done).sendToTarget();
@@ -160,7 +211,6 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
                 processInputBuffer();
             }
         } else if (msg.what == MSG_ENCODE) {
-            mQueue.addLast((Sample) msg.obj);
             if (mInputBufferIndex >= 0) {
                 processInputBuffer();
             }
@@ -169,8 +219,10 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
     }
 
     private void processInputBuffer() {
-        Sample s = mQueue.peekFirst();
-        if (s == null) { // input available?
+        ByteBuffer b = mCodec.getInputBuffer(mInputBufferIndex);
+        assert b != null;
+        int sz = mRing.read(b);
+        if (sz == 0) { // input available?
             if (mFinalSem != null) {
                 // input queue is exhausted and stopRecording() is waiting for
                 // encoding to finish. signal end-of-stream on the input.
@@ -179,27 +231,28 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
                         mInputBufferIndex, 0, 0,
                         getPresentationTimestampUs(mInputBufferPosition),
                         MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                mInputBufferIndex = -1;
+                return;
+            }
+            // Ask the producer to wake us up, then check again in case it
+            // wrote right before the flag was raised
+            mWaitingForInput = true;
+            if (mRing.available() == 0) {
+                return;
+            }
+            mWaitingForInput = false;
+            sz = mRing.read(b);
+            if (sz == 0) {
+                return;
             }
-            return;
         }
 
-        ByteBuffer b = mCodec.getInputBuffer(mInputBufferIndex);
-        assert b != null;
-        int sz = Math.min(b.capacity(), s.bytes.length - s.offset);
         long ts = getPresentationTimestampUs(mInputBufferPosition);
         if (TRACE)
             Log.v(TAG, String.format("processInputBuffer (len=%d) ts=%.3f", sz, ts * 1e-6));
 
-        b.put(s.bytes, s.offset, sz);
         mCodec.queueInputBuffer(mInputBufferIndex, 0, sz, ts, 0);
-
         mInputBufferPosition += sz;
-        s.offset += sz;
-
-        // done with this sample?
-        if (s.offset >= s.bytes.length) {
-            mQueue.pop();
-        }
 
         // done with this buffer
         mInputBufferIndex = -1;
@@ -266,6 +319,8 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
             mMuxer.stop();
             mMuxer.release();
         }
+
+        mRing.close();
     }
 
     private void calculateInputRate() {
@@ -294,13 +349,35 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
     }
 
     private long getPresentationTimestampUs(long position) {
-        return (long) (position / mRate);
+        return computePresentationTimestampUs(position, mRate);
+    }
+
+    /**
+     * @param position The input position in bytes
+     * @param rate The input rate in bytes per us
+     *
+     * @return The presentation timestamp of the position in us
+     */
+    static long computePresentationTimestampUs(long position, float rate) {
+        return (long) (position / rate);
     }
 
     public interface Callback {
         void onError(int what);
     }
 
+    /**
+     * Producer of PCM data for {@link #capture}
+     */
+    public interface PcmSource {
+        /**
+         * Fill dst from its position, without moving past its limit
+         *
+         * @return The number of bytes written to dst
+         */
+        int read(ByteBuffer dst);
+    }
+
     class AudioRecorderCodecCallback extends MediaCodec.Callback {
 
         @Override
@@ -323,9 +400,4 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
         public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
         }
     }
-
-    private class Sample {
-        byte bytes[];
-        int offset;
-    }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.text.DecimalFormat;
+import java.util.Locale;
+
+/**
+ * Precomputed band plans of the supported regions. Stations are integers in
+ * 100KHz units (875 is 87.5MHz) and map to channel indices on the plan's
+ * grid without any float math.
+ */
+class BandPlan {
+    // 87.5-108MHz, 100KHz spacing, 50us de-emphasis
+    static final int REGION_EUROPE = 0;
+    // 87.5-107.9MHz, 200KHz spacing on odd decimals, 75us de-emphasis
+    static final int REGION_AMERICAS = 1;
+    // 76-90MHz, 100KHz spacing, 50us de-emphasis
+    static final int REGION_JAPAN = 2;
+    // 76-108MHz, 100KHz spacing, 50us de-emphasis
+    static final int REGION_WIDE = 3;
+
+    // Driver values, see FM_REGION, CHAN_SPACING and DE_EMPHASIS in jni/FM_Const.h
+    static final int NATIVE_BAND_87500_108000 = 1;
+    static final int NATIVE_BAND_76000_108000 = 2;
+    static final int NATIVE_BAND_76000_90000 = 3;
+    static final int NATIVE_SPACING_200 = 0;
+    static final int NATIVE_SPACING_100 = 1;
+    static final int NATIVE_DEEMPHASIS_75 = 0;
+    static final int NATIVE_DEEMPHASIS_50 = 1;
+
+    private static final BandPlan[] PLANS = new BandPlan[] {
+        new BandPlan(REGION_EUROPE, 875, 1080, 1, 1000,
+                NATIVE_BAND_87500_108000, NATIVE_SPACING_100, NATIVE_DEEMPHASIS_50),
+        new BandPlan(REGION_AMERICAS, 875, 1079, 2, 1001,
+                NATIVE_BAND_87500_108000, NATIVE_SPACING_200, NATIVE_DEEMPHASIS_75),
+        new BandPlan(REGION_JAPAN, 760, 900, 1, 800,
+                NATIVE_BAND_76000_90000, NATIVE_SPACING_100, NATIVE_DEEMPHASIS_50),
+        new BandPlan(REGION_WIDE, 760, 1080, 1, 1000,
+                NATIVE_BAND_76000_108000, NATIVE_SPACING_100, NATIVE_DEEMPHASIS_50),
+    };
+
+    private static volatile BandPlan sCurrent = PLANS[REGION_EUROPE];
+
+    // guarded by BandPlan.class
+    private static DecimalFormat sFormat = null;
+    private static Locale sFormatLocale = null;
+
+    final int mRegion;
+    final int mLowStation;
+    final int mHighStation;
+    final int mStep;
+    final int mDefaultStation;
+    final int mChannelCount;
+    final int mNativeBand;
+    final int mNativeSpacing;
+    final int mNativeDeemphasis;
+    // Formatted channels, filled on first use, guarded by BandPlan.class
+    private String[] mLabels = null;
+
+    private BandPlan(int region, int lowStation, int highStation, int step,
+            int defaultStation, int nativeBand, int nativeSpacing, int nativeDeemphasis) {
+        mRegion = region;
+        mLowStation = lowStation;
+        mHighStation = highStation;
+        mStep = step;
+        mDefaultStation = defaultStation;
+        mChannelCount = (highStation - lowStation) / step + 1;
+        mNativeBand = nativeBand;
+        mNativeSpacing = nativeSpacing;
+        mNativeDeemphasis = nativeDeemphasis;
+    }
+
+    /**
+     * @param region One of the REGION_ constants
+     *
+     * @return The plan of the region, the European plan if it is unknown
+     */
+    static BandPlan get(int region) {
+        if (region < 0 || region >= PLANS.length) {
+            return PLANS[REGION_EUROPE];
+        }
+        return PLANS[region];
+    }
+
+    /**
+     * @param nativeBand One of the NATIVE_BAND_ constants
+     * @param nativeSpacing One of the NATIVE_SPACING_ constants
+     *
+     * @return The plan the driver values select, null if none does
+     */
+    static BandPlan fromNative(int nativeBand, int nativeSpacing) {
+        for (BandPlan plan : PLANS) {
+            if (plan.mNativeBand == nativeBand && plan.mNativeSpacing == nativeSpacing) {
+                return plan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return A plan holding the stations of every region on a 100KHz grid,
+     *         for tables indexed by station whatever the region
+     */
+    static BandPlan getAllStations() {
+        return PLANS[REGION_WIDE];
+    }
+
+    /**
+     * @return The plan in use
+     */
+    static BandPlan getCurrent() {
+        return sCurrent;
+    }
+
+    /**
+     * Switch the plan in use
+     *
+     * @param region One of the REGION_ constants
+     */
+    static void setCurrent(int region) {
+        sCurrent = get(region);
+    }
+
+    /**
+     * @param station The station frequency
+     *
+     * @return true if the station lies within the band
+     */
+    boolean contains(int station) {
+        return station >= mLowStation && station <= mHighStation;
+    }
+
+    /**
+     * @param station The station frequency
+     *
+     * @return true if the station is a channel of the grid
+     */
+    boolean isOnGrid(int station) {
+        return contains(station) && (station - mLowStation) % mStep == 0;
+    }
+
+    /**
+     * @param station A station within the band
+     *
+     * @return The channel at or below the station
+     */
+    int toChannel(int station) {
+        return (station - mLowStation) / mStep;
+    }
+
+    /**
+     * @param channel The channel, from 0 to {@link #mChannelCount} - 1
+     *
+     * @return The station frequency
+     */
+    int toStation(int channel) {
+        return mLowStation + channel * mStep;
+    }
+
+    /**
+     * @param station Any station frequency
+     *
+     * @return The closest channel of the grid
+     */
+    int snap(int station) {
+        if (station <= mLowStation) {
+            return mLowStation;
+        }
+        if (station >= mHighStation) {
+            return mHighStation;
+        }
+        return toStation((station - mLowStation + mStep / 2) / mStep);
+    }
+
+    /**
+     * Format a station, channels are formatted once per locale
+     *
+     * @param station The station frequency
+     *
+     * @return string like 87.5
+     */
+    String format(int station) {
+        Locale locale = Locale.getDefault();
+        synchronized (BandPlan.class) {
+            if (!locale.equals(sFormatLocale)) {
+                sFormat = new DecimalFormat("0.0");
+                sFormatLocale = locale;
+                for (BandPlan plan : PLANS) {
+                    plan.mLabels = null;
+                }
+            }
+            if (!isOnGrid(station)) {
+                return sFormat.format(station / 10f);
+            }
+            if (mLabels == null) {
+                mLabels = new String[mChannelCount];
+            }
+            int channel = toChannel(station);
+            String label = mLabels[channel];
+            if (label == null) {
+                label = sFormat.format(station / 10f);
+                mLabels[channel] = label;
+            }
+            return label;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BandPlan{region=" + mRegion + ", " + mLowStation + "-" + mHighStation
+                + ", step=" + mStep + ", band=" + mNativeBand + ", spacing="
+                + mNativeSpacing + ", deemphasis=" + mNativeDeemphasis + "}";
+    }
+}
@@ -55,6 +55,7 @@ import android.widget.Toast;
 import com.android.fmradio.FmService.OnExitListener;
 import com.android.fmradio.FmStation.Station;
 import com.android.fmradio.Utils;
+import com.android.fmradio.dialogs.FmRdsHistoryDialog;
 
 import android.support.v7.widget.CardView;
 
@@ -72,6 +73,8 @@ public class FmFavoriteActivity extends Activity {
 
     private static final String GPS_NOT_LOCATED_DIALOG = "GPS_NOT_LOCATED_DIALOG";
 
+    private static final String TAG_RDS_HISTORY = "TAG_RDS_HISTORY";
+
     LinearLayout mSearchTips = null;
 
     private Context mContext = null; // application context
@@ -100,6 +103,7 @@ public class FmFavoriteActivity extends Activity {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        FmUtils.loadBandPlan(this);
         // Bind the activity to FM audio stream.
         setVolumeControlStream(AudioManager.STREAM_MUSIC);
         getWindow().requestFeature(Window.FEATURE_ACTION_BAR);
@@ -147,6 +151,23 @@ public class FmFavoriteActivity extends Activity {
             }
         });
 
+        mGridView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            /**
+             * Long press on a card shows the RDS history of its station
+             */
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position,
+                    long id) {
+                int frequency = mMyAdapter.getStationFreq(position);
+                if (frequency == -1) {
+                    return false;
+                }
+                FmRdsHistoryDialog.newInstance(frequency)
+                        .show(getFragmentManager(), TAG_RDS_HISTORY);
+                return true;
+            }
+        });
+
         // Finish favorite when exit FM
         mExitListener = new FmService.OnExitListener() {
             @Override
@@ -200,6 +221,8 @@ public class FmFavoriteActivity extends Activity {
                             boolean exceed =
                                     searchedDistance > FmUtils.LOCATION_DISTANCE_EXCEED;
                             mService.setDistanceExceed(exceed);
+                            mService.setScanLocation(mCurLocation.getLatitude(),
+                                    mCurLocation.getLongitude());
                             FmUtils.setLastSearchedLocation(mContext, mCurLocation.getLatitude(),
                                     mCurLocation.getLongitude());
                         }
@@ -577,6 +600,14 @@ public class FmFavoriteActivity extends Activity {
                             + String.valueOf(searchedNum);
                     Toast.makeText(mContext, text, Toast.LENGTH_SHORT).show();
                     break;
+                case FmListener.MSGID_SCAN_PROGRESS:
+                    bundle = msg.getData();
+                    int scanStation = bundle.getInt(FmListener.KEY_SCAN_STATION);
+                    // show how far in the band the scan is
+                    mSearchProgress.setIndeterminate(false);
+                    mSearchProgress.setMax(FmUtils.getChannelCount());
+                    mSearchProgress.setProgress(FmUtils.computeChannel(scanStation) + 1);
+                    break;
                 case FmListener.MSGID_SWITCH_ANTENNA:
                     bundle = msg.getData();
                     boolean isHeadset = bundle.getBoolean(FmListener.KEY_IS_SWITCH_ANTENNA);
@@ -60,6 +60,7 @@ public interface FmListener {
     String KEY_PS_INFO = "key_ps_info";
     String KEY_RT_INFO = "key_rt_info";
     String KEY_STATION_NUM = "key_station_num";
+    String KEY_SCAN_STATION = "key_scan_station";
 
     // Audio focus related
     String KEY_AUDIOFOCUS_CHANGED = "key_audiofocus_changed";
@@ -86,6 +87,7 @@ public interface FmListener {
     int MSGID_SET_RDS_FINISHED = 5;
     int MSGID_SET_CHANNEL_FINISHED = 6;
     int MSGID_SET_MUTE_FINISHED = 7;
+    int MSGID_SET_REGION_FINISHED = 8;
     // Fm main
     int MSGID_POWERUP_FINISHED = 9;
     int MSGID_POWERDOWN_FINISHED = 10;
@@ -105,6 +107,8 @@ public interface FmListener {
     int MSGID_STARTPLAYBACK_FINISHED = 24;
     int MSGID_STOPPLAYBACK_FINISHED = 25;
     int MSGID_SAVERECORDING_FINISHED = 26;
+    // A station was found, the scan goes on
+    int MSGID_SCAN_PROGRESS = 27;
     // Audio focus related
     int MSGID_AUDIOFOCUS_CHANGED = 30;
 
@@ -117,6 +121,9 @@ public interface FmListener {
     int MSGID_HEADSET_HOOK_EVENT = 102;
     int MSGID_HEADSET_HOOK_MULTI_CLICK_TIMEOUT = 103;
 
+    // Switch the chip to the power mode of the power policy
+    int MSGID_POWER_POLICY_CHANGED = 104;
+
     /**
      * Call back method to activity from service
      */
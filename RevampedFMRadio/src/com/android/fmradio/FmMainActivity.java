@@ -134,7 +134,7 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
 
     private boolean mIsActivityForeground = true;
 
-    private int mCurrentStation = FmUtils.DEFAULT_STATION;
+    private int mCurrentStation = FmUtils.getDefaultStation();
 
     private boolean mPoweredUpAtLeastOnce = false;
 
@@ -271,8 +271,7 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
 
                     // tune finished, should make power enable
                     mIsDisablePowerMenu = false;
-                    float frequency = bundle.getFloat(FmListener.KEY_TUNE_TO_STATION);
-                    mCurrentStation = FmUtils.computeStation(frequency);
+                    mCurrentStation = bundle.getInt(FmListener.KEY_TUNE_TO_STATION);
                     // After tune to station finished, refresh favorite button and
                     // other button status.
                     refreshStationUI(mCurrentStation);
@@ -473,6 +472,7 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        FmUtils.loadBandPlan(this);
         // Bind the activity to FM audio stream.
         setVolumeControlStream(AudioManager.STREAM_MUSIC);
         setContentView(R.layout.main);
@@ -765,6 +765,35 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
         refreshPlayButton(isSeeking ? false
                 : (isPowerUp || (isPowerdown && !mIsDisablePowerMenu)));
         setMenuItemAudioIcon(isSpeakerUsed);
+        int renderBufferMode = mService.getRenderBufferMode();
+        int renderBufferItem = R.id.render_buffer_balanced;
+        if (renderBufferMode == RenderBufferController.MODE_LOW_LATENCY) {
+            renderBufferItem = R.id.render_buffer_low_latency;
+        } else if (renderBufferMode == RenderBufferController.MODE_POWER_SAVING) {
+            renderBufferItem = R.id.render_buffer_power_saving;
+        }
+        MenuItem item = menu.findItem(renderBufferItem);
+        if (item != null) {
+            item.setChecked(true);
+        }
+        int bandRegionItem = R.id.band_region_europe;
+        switch (mService.getBandRegion()) {
+            case BandPlan.REGION_AMERICAS:
+                bandRegionItem = R.id.band_region_americas;
+                break;
+            case BandPlan.REGION_JAPAN:
+                bandRegionItem = R.id.band_region_japan;
+                break;
+            case BandPlan.REGION_WIDE:
+                bandRegionItem = R.id.band_region_wide;
+                break;
+            default:
+                break;
+        }
+        item = menu.findItem(bandRegionItem);
+        if (item != null) {
+            item.setChecked(true);
+        }
         return true;
     }
 
@@ -802,6 +831,34 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
                 invalidateOptionsMenu();
                 break;
 
+            case R.id.render_buffer_balanced:
+                mService.setRenderBufferMode(RenderBufferController.MODE_BALANCED);
+                break;
+
+            case R.id.render_buffer_low_latency:
+                mService.setRenderBufferMode(RenderBufferController.MODE_LOW_LATENCY);
+                break;
+
+            case R.id.render_buffer_power_saving:
+                mService.setRenderBufferMode(RenderBufferController.MODE_POWER_SAVING);
+                break;
+
+            case R.id.band_region_europe:
+                mService.setBandRegionAsync(BandPlan.REGION_EUROPE);
+                break;
+
+            case R.id.band_region_americas:
+                mService.setBandRegionAsync(BandPlan.REGION_AMERICAS);
+                break;
+
+            case R.id.band_region_japan:
+                mService.setBandRegionAsync(BandPlan.REGION_JAPAN);
+                break;
+
+            case R.id.band_region_wide:
+                mService.setBandRegionAsync(BandPlan.REGION_WIDE);
+                break;
+
             case R.id.fm_start_record:
                 Intent recordIntent = new Intent(this, FmRecordActivity.class);
                 recordIntent.putExtra(FmStation.CURRENT_STATION, mCurrentStation);
@@ -930,7 +987,7 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
         refreshActionMenuItem(false);
         refreshPopupMenuItem(false);
         refreshPlayButton(false);
-        mService.powerUpAsync(FmUtils.computeFrequency(mCurrentStation));
+        mService.powerUpAsync(mCurrentStation);
     }
 
     /**
@@ -962,7 +1019,7 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
         refreshActionMenuItem(false);
         refreshPopupMenuItem(false);
         refreshPlayButton(false);
-        mService.tuneStationAsync(FmUtils.computeFrequency(station));
+        mService.tuneStationAsync(station);
     }
 
     /**
@@ -978,7 +1035,7 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
         refreshActionMenuItem(false);
         refreshPopupMenuItem(false);
         refreshPlayButton(false);
-        mService.seekStationAsync(FmUtils.computeFrequency(station), direction);
+        mService.seekStationAsync(station, direction);
     }
 
     private void refreshImageButton(boolean enabled) {
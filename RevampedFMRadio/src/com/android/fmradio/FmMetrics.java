@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide registry of latency histograms and counters, printed by
+ * dumpsys. Metrics are created once and kept by their users, recording
+ * does not allocate.
+ */
+class FmMetrics {
+    // Upper bounds of the histogram buckets in ms, the last bucket is unbounded
+    private static final long[] BUCKET_BOUNDS_MS = new long[] {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+    };
+
+    // guarded by itself
+    private static final ArrayList<Histogram> sHistograms = new ArrayList<Histogram>();
+    // guarded by itself
+    private static final ArrayList<Counter> sCounters = new ArrayList<Counter>();
+
+    /**
+     * Fixed-bucket latency histogram with an error count
+     */
+    static class Histogram {
+        private final String mName;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mErrors = new AtomicLong();
+        private final AtomicLong mSumMs = new AtomicLong();
+        private final AtomicLong mMaxMs = new AtomicLong();
+
+        private Histogram(String name) {
+            mName = name;
+        }
+
+        /**
+         * Record an operation started at the given time
+         *
+         * @param startNanos The {@link System#nanoTime} at the start
+         * @param success Whether the operation succeeded
+         */
+        void recordSince(long startNanos, boolean success) {
+            record((System.nanoTime() - startNanos) / 1000000, success);
+        }
+
+        /**
+         * Record an operation
+         *
+         * @param ms The duration in ms
+         * @param success Whether the operation succeeded
+         */
+        void record(long ms, boolean success) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && ms > BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSumMs.addAndGet(ms);
+            if (!success) {
+                mErrors.incrementAndGet();
+            }
+            long max = mMaxMs.get();
+            while (ms > max && !mMaxMs.compareAndSet(max, ms)) {
+                max = mMaxMs.get();
+            }
+        }
+
+        /**
+         * @return The upper bound of the bucket holding the percentile, -1 if
+         *         it lies in the unbounded bucket
+         */
+        private long percentile(long count, int percent) {
+            long rank = (count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return BUCKET_BOUNDS_MS[i];
+                }
+            }
+            return -1;
+        }
+
+        private void dump(PrintWriter writer) {
+            long count = mCount.get();
+            if (count == 0) {
+                return;
+            }
+            long errors = mErrors.get();
+            writer.println(String.format("    %-28s n=%d err=%d (%.1f%%) p50<=%s p90<=%s"
+                    + " p99<=%s avg=%dms max=%dms", mName, count, errors,
+                    errors * 100f / count, bound(percentile(count, 50)),
+                    bound(percentile(count, 90)), bound(percentile(count, 99)),
+                    mSumMs.get() / count, mMaxMs.get()));
+        }
+
+        private static String bound(long ms) {
+            return ms < 0 ? "inf" : ms + "ms";
+        }
+    }
+
+    /**
+     * Monotonic counter
+     */
+    static class Counter {
+        private final String mName;
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter(String name) {
+            mName = name;
+        }
+
+        void increment() {
+            mValue.incrementAndGet();
+        }
+    }
+
+    /**
+     * Create a histogram, meant to be kept in a field
+     *
+     * @param name The name shown in dumpsys
+     *
+     * @return The new histogram
+     */
+    static Histogram histogram(String name) {
+        Histogram histogram = new Histogram(name);
+        synchronized (sHistograms) {
+            sHistograms.add(histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Create a counter, meant to be kept in a field
+     *
+     * @param name The name shown in dumpsys
+     *
+     * @return The new counter
+     */
+    static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        synchronized (sCounters) {
+            sCounters.add(counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Print every metric which recorded something
+     */
+    static void dump(PrintWriter writer) {
+        writer.println("  Latencies:");
+        synchronized (sHistograms) {
+            for (Histogram histogram : sHistograms) {
+                histogram.dump(writer);
+            }
+        }
+        writer.println("  Counters:");
+        synchronized (sCounters) {
+            for (Counter counter : sCounters) {
+                writer.println("    " + counter.mName + "=" + counter.mValue.get());
+            }
+        }
+    }
+}
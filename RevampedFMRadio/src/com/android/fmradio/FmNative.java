@@ -24,28 +24,83 @@ public class FmNative {
         System.loadLibrary("qcomfmjni");
     }
 
+    // Every call is timed, the natives are only reached through the wrappers
+    private static final FmMetrics.Histogram OPEN_DEV =
+            FmMetrics.histogram("native.openDev");
+    private static final FmMetrics.Histogram CLOSE_DEV =
+            FmMetrics.histogram("native.closeDev");
+    private static final FmMetrics.Histogram POWER_UP =
+            FmMetrics.histogram("native.powerUp");
+    private static final FmMetrics.Histogram POWER_DOWN =
+            FmMetrics.histogram("native.powerDown");
+    private static final FmMetrics.Histogram TUNE =
+            FmMetrics.histogram("native.tune");
+    private static final FmMetrics.Histogram SEEK =
+            FmMetrics.histogram("native.seek");
+    private static final FmMetrics.Histogram SET_REGION =
+            FmMetrics.histogram("native.setRegion");
+    private static final FmMetrics.Histogram AUTO_SCAN =
+            FmMetrics.histogram("native.autoScan");
+    private static final FmMetrics.Histogram STOP_SCAN =
+            FmMetrics.histogram("native.stopScan");
+    private static final FmMetrics.Histogram SET_RDS =
+            FmMetrics.histogram("native.setRds");
+    private static final FmMetrics.Histogram READ_RDS =
+            FmMetrics.histogram("native.readRds");
+    private static final FmMetrics.Histogram GET_PS =
+            FmMetrics.histogram("native.getPs");
+    private static final FmMetrics.Histogram GET_LR_TEXT =
+            FmMetrics.histogram("native.getLrText");
+    private static final FmMetrics.Histogram ACTIVE_AF =
+            FmMetrics.histogram("native.activeAf");
+    private static final FmMetrics.Histogram SET_MUTE =
+            FmMetrics.histogram("native.setMute");
+    private static final FmMetrics.Histogram IS_RDS_SUPPORT =
+            FmMetrics.histogram("native.isRdsSupport");
+    private static final FmMetrics.Histogram SWITCH_ANTENNA =
+            FmMetrics.histogram("native.switchAntenna");
+    private static final FmMetrics.Histogram SET_LOW_POWER_MODE =
+            FmMetrics.histogram("native.setLowPowerMode");
+    private static final FmMetrics.Histogram SET_NORMAL_POWER_MODE =
+            FmMetrics.histogram("native.setNormalPowerMode");
+
     /**
      * Open FM device, call before power up
      *
      * @return (true,success; false, failed)
      */
-    static native boolean openDev();
+    static boolean openDev() {
+        long start = System.nanoTime();
+        boolean result = nativeOpenDev();
+        OPEN_DEV.recordSince(start, result);
+        return result;
+    }
 
     /**
      * Close FM device, call after power down
      *
      * @return (true, success; false, failed)
      */
-    static native boolean closeDev();
+    static boolean closeDev() {
+        long start = System.nanoTime();
+        boolean result = nativeCloseDev();
+        CLOSE_DEV.recordSince(start, result);
+        return result;
+    }
 
     /**
      * power up FM with frequency use long antenna
      *
-     * @param frequency frequency(50KHZ, 87.55; 100KHZ, 87.5)
+     * @param station station in 100KHZ units, 875 for 87.5
      *
      * @return (true, success; false, failed)
      */
-    static native boolean powerUp(float frequency);
+    static boolean powerUp(int station) {
+        long start = System.nanoTime();
+        boolean result = nativePowerUp(station);
+        POWER_UP.recordSince(start, result);
+        return result;
+    }
 
     /**
      * Power down FM
@@ -54,33 +109,70 @@ public class FmNative {
      *
      * @return (true, success; false, failed)
      */
-    static native boolean powerDown(int type);
+    static boolean powerDown(int type) {
+        long start = System.nanoTime();
+        boolean result = nativePowerDown(type);
+        POWER_DOWN.recordSince(start, result);
+        return result;
+    }
 
     /**
      * tune to frequency
      *
-     * @param frequency frequency(50KHZ, 87.55; 100KHZ, 87.5)
+     * @param station station in 100KHZ units, 875 for 87.5
      *
      * @return (true, success; false, failed)
      */
-    static native boolean tune(float frequency);
+    static boolean tune(int station) {
+        long start = System.nanoTime();
+        boolean result = nativeTune(station);
+        TUNE.recordSince(start, result);
+        return result;
+    }
 
     /**
      * seek with frequency in direction
      *
-     * @param frequency frequency(50KHZ, 87.55; 100KHZ, 87.5)
+     * @param station station in 100KHZ units, 875 for 87.5
      * @param isUp (true, next station; false previous station)
      *
-     * @return frequency(float)
+     * @return the station found, the given station if none
+     */
+    static int seek(int station, boolean isUp) {
+        long start = System.nanoTime();
+        int result = nativeSeek(station, isUp);
+        SEEK.recordSince(start, result > 0);
+        return result;
+    }
+
+    /**
+     * Set the band plan, applied at once if powered up and kept for the
+     * next power up
+     *
+     * @param band (1, 87.5-108; 2, 76-108; 3, 76-90)
+     * @param spacing (0, 200KHZ; 1, 100KHZ)
+     * @param deemphasis (0, 75us; 1, 50us)
+     *
+     * @return (true, success; false, failed)
      */
-    static native float seek(float frequency, boolean isUp);
+    static boolean setRegion(int band, int spacing, int deemphasis) {
+        long start = System.nanoTime();
+        boolean result = nativeSetRegion(band, spacing, deemphasis);
+        SET_REGION.recordSince(start, result);
+        return result;
+    }
 
     /**
-     * Auto scan(from 87.50-108.00)
+     * Auto scan over the band set by {@link #setRegion}
      *
      * @return The scan station array(short)
      */
-    static native short[] autoScan();
+    static short[] autoScan() {
+        long start = System.nanoTime();
+        short[] result = nativeAutoScan();
+        AUTO_SCAN.recordSince(start, result != null);
+        return result;
+    }
 
     /**
      * Stop scan, also can stop seek, other native when scan should call stop
@@ -88,7 +180,12 @@ public class FmNative {
      *
      * @return (true, can stop scan process; false, can't stop scan process)
      */
-    static native boolean stopScan();
+    static boolean stopScan() {
+        long start = System.nanoTime();
+        boolean result = nativeStopScan();
+        STOP_SCAN.recordSince(start, result);
+        return result;
+    }
 
     /**
      * Open or close rds fuction
@@ -97,35 +194,60 @@ public class FmNative {
      *
      * @return rdsset
      */
-    static native int setRds(boolean rdson);
+    static int setRds(boolean rdson) {
+        long start = System.nanoTime();
+        int result = nativeSetRds(rdson);
+        SET_RDS.recordSince(start, result != 0);
+        return result;
+    }
 
     /**
      * Read rds events
      *
      * @return rds event type
      */
-    static native short readRds();
+    static short readRds() {
+        long start = System.nanoTime();
+        short result = nativeReadRds();
+        READ_RDS.recordSince(start, true);
+        return result;
+    }
 
     /**
      * Get program service(program name)
      *
      * @return The program name
      */
-    static native byte[] getPs();
+    static byte[] getPs() {
+        long start = System.nanoTime();
+        byte[] result = nativeGetPs();
+        GET_PS.recordSince(start, true);
+        return result;
+    }
 
     /**
      * Get radio text, RDS standard does not support Chinese character
      *
      * @return The LRT (Last Radio Text) bytes
      */
-    static native byte[] getLrText();
+    static byte[] getLrText() {
+        long start = System.nanoTime();
+        byte[] result = nativeGetLrText();
+        GET_LR_TEXT.recordSince(start, true);
+        return result;
+    }
 
     /**
      * Active alternative frequencies
      *
      * @return The frequency(float)
      */
-    static native short activeAf();
+    static short activeAf() {
+        long start = System.nanoTime();
+        short result = nativeActiveAf();
+        ACTIVE_AF.recordSince(start, true);
+        return result;
+    }
 
     /**
      * Mute or unmute FM voice
@@ -134,14 +256,24 @@ public class FmNative {
      *
      * @return (true, success; false, failed)
      */
-    static native int setMute(boolean mute);
+    static int setMute(boolean mute) {
+        long start = System.nanoTime();
+        int result = nativeSetMute(mute);
+        SET_MUTE.recordSince(start, result != 0);
+        return result;
+    }
 
     /**
      * Inquiry if RDS is support in driver
      *
      * @return (1, support; 0, NOT support; -1, error)
      */
-    static native int isRdsSupport();
+    static int isRdsSupport() {
+        long start = System.nanoTime();
+        int result = nativeIsRdsSupport();
+        IS_RDS_SUPPORT.recordSince(start, result >= 0);
+        return result;
+    }
 
     /**
      * Switch antenna
@@ -150,19 +282,54 @@ public class FmNative {
      *
      * @return (0, success; 1 failed; 2 not support)
      */
-    static native int switchAntenna(int antenna);
+    static int switchAntenna(int antenna) {
+        long start = System.nanoTime();
+        int result = nativeSwitchAntenna(antenna);
+        SWITCH_ANTENNA.recordSince(start, result == 0);
+        return result;
+    }
 
     /**
      * Set the driver to low power mode.
      *
      * @return (true, success; false, failed)
      */
-    static native boolean setLowPowerMode();
+    static boolean setLowPowerMode() {
+        long start = System.nanoTime();
+        boolean result = nativeSetLowPowerMode();
+        SET_LOW_POWER_MODE.recordSince(start, result);
+        return result;
+    }
 
     /**
      * Set the driver to normal power mode.
      *
      * @return (true, success; false, failed)
      */
-    static native boolean setNormalPowerMode();
+    static boolean setNormalPowerMode() {
+        long start = System.nanoTime();
+        boolean result = nativeSetNormalPowerMode();
+        SET_NORMAL_POWER_MODE.recordSince(start, result);
+        return result;
+    }
+
+    private static native boolean nativeOpenDev();
+    private static native boolean nativeCloseDev();
+    private static native boolean nativePowerUp(int station);
+    private static native boolean nativePowerDown(int type);
+    private static native boolean nativeTune(int station);
+    private static native int nativeSeek(int station, boolean isUp);
+    private static native boolean nativeSetRegion(int band, int spacing, int deemphasis);
+    private static native short[] nativeAutoScan();
+    private static native boolean nativeStopScan();
+    private static native int nativeSetRds(boolean rdson);
+    private static native short nativeReadRds();
+    private static native byte[] nativeGetPs();
+    private static native byte[] nativeGetLrText();
+    private static native short nativeActiveAf();
+    private static native int nativeSetMute(boolean mute);
+    private static native int nativeIsRdsSupport();
+    private static native int nativeSwitchAntenna(int antenna);
+    private static native boolean nativeSetLowPowerMode();
+    private static native boolean nativeSetNormalPowerMode();
 }
@@ -17,17 +17,24 @@
 package com.android.fmradio;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
 
 /**
  * This class provider interface to operator FM database table StationList
@@ -42,22 +49,49 @@ public class FmProvider extends ContentProvider {
     // database name
     private static final String DATABASE_NAME = "FmRadio.db";
     // database version
-    private static final int DATABASE_VERSION = 1;
+    // version 2: write-ahead logging and favorite/frequency index
+    // version 3: RDS history table
+    private static final int DATABASE_VERSION = 3;
     // table name
     private static final String TABLE_NAME = "StationList";
+    // table of the RDS history rings
+    private static final String HISTORY_TABLE_NAME = "RdsHistory";
+    // index serving the favorite filters sorted by frequency
+    private static final String INDEX_FAVORITE_FREQUENCY = "StationListFavoriteFrequency";
 
     // URI match code
     private static final int STATION_FREQ = 1;
     // URI match code
     private static final int STATION_FREQ_ID = 2;
+    // URI match code
+    private static final int RDS_HISTORY = 3;
     // use to match URI
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+    // set while applyBatch runs on this thread, the batch notifies once at its end
+    private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<Boolean>();
+    // station columns, a bit per column keys the compiled statements below
+    private static final String[] STATION_COLUMNS = new String[] {
+            FmStation.Station.FREQUENCY,
+            FmStation.Station.IS_FAVORITE,
+            FmStation.Station.STATION_NAME,
+            FmStation.Station.PROGRAM_SERVICE,
+            FmStation.Station.RADIO_TEXT
+    };
+    // bit of the frequency column in a column mask
+    private static final int FREQUENCY_BIT = 1;
+    // compiled update-by-frequency statements by column mask, guarded by itself
+    private final SparseArray<SQLiteStatement> mUpdateStatements =
+            new SparseArray<SQLiteStatement>();
+    // compiled upsert statements by column mask, guarded by itself
+    private final SparseArray<SQLiteStatement> mUpsertStatements =
+            new SparseArray<SQLiteStatement>();
 
     // match URI with station frequency or station frequency id
     static {
         URI_MATCHER.addURI(FmStation.AUTHORITY, FmStation.STATION, STATION_FREQ);
         URI_MATCHER.addURI(FmStation.AUTHORITY, FmStation.STATION + "/#",
                 STATION_FREQ_ID);
+        URI_MATCHER.addURI(FmStation.AUTHORITY, FmStation.RDS_HISTORY, RDS_HISTORY);
     }
 
     /**
@@ -72,6 +106,8 @@ public class FmProvider extends ContentProvider {
          */
         DatabaseHelper(Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            // RDS writes must not block the UI reading the station list
+            setWriteAheadLoggingEnabled(true);
         }
 
         /**
@@ -93,6 +129,44 @@ public class FmProvider extends ContentProvider {
                             + FmStation.Station.RADIO_TEXT + " TEXT"
                             + ");"
                     );
+            createIndexes(db);
+            createHistoryTable(db);
+        }
+
+        /**
+         * Create the indexes added in version 2
+         *
+         * @param db The database
+         */
+        private void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_FAVORITE_FREQUENCY
+                    + " ON " + TABLE_NAME + "("
+                    + FmStation.Station.IS_FAVORITE + ","
+                    + FmStation.Station.FREQUENCY + ");");
+        }
+
+        /**
+         * Create the RDS history table added in version 3. A row is unique
+         * per station, type and slot, so a station never has more rows than
+         * twice the ring size.
+         *
+         * @param db The database
+         */
+        private void createHistoryTable(SQLiteDatabase db) {
+            db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS " + HISTORY_TABLE_NAME + "("
+                            + FmStation.RdsHistory._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + FmStation.RdsHistory.FREQUENCY + " INTEGER NOT NULL,"
+                            + FmStation.RdsHistory.TYPE + " INTEGER NOT NULL,"
+                            + FmStation.RdsHistory.SLOT + " INTEGER NOT NULL,"
+                            + FmStation.RdsHistory.SEQUENCE + " INTEGER NOT NULL,"
+                            + FmStation.RdsHistory.TEXT + " TEXT,"
+                            + FmStation.RdsHistory.TIME + " INTEGER,"
+                            + "UNIQUE(" + FmStation.RdsHistory.FREQUENCY + ","
+                            + FmStation.RdsHistory.TYPE + ","
+                            + FmStation.RdsHistory.SLOT + ")"
+                            + ");"
+                    );
         }
 
         /**
@@ -104,11 +178,15 @@ public class FmProvider extends ContentProvider {
          */
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            // TODO: reimplement this when dB version changes
             Log.i(TAG, "onUpgrade, upgrading database from version " + oldVersion + " to "
-                    + newVersion + ", which will destroy all old data");
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-            onCreate(db);
+                    + newVersion);
+            if (oldVersion < 2) {
+                // the table is unchanged, stations and favorites are kept
+                createIndexes(db);
+            }
+            if (oldVersion < 3) {
+                createHistoryTable(db);
+            }
         }
     }
 
@@ -128,7 +206,7 @@ public class FmProvider extends ContentProvider {
         switch (URI_MATCHER.match(uri)) {
             case STATION_FREQ:
                 rows = mSqlDb.delete(TABLE_NAME, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(getChangeUri(uri, selection, selectionArgs));
                 break;
 
             case STATION_FREQ_ID:
@@ -139,7 +217,12 @@ public class FmProvider extends ContentProvider {
                                 + stationID
                                 + (TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")"),
                         selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
+                break;
+
+            case RDS_HISTORY:
+                rows = mSqlDb.delete(HISTORY_TABLE_NAME, selection, selectionArgs);
+                notifyChange(uri);
                 break;
 
             default:
@@ -163,16 +246,252 @@ public class FmProvider extends ContentProvider {
         mSqlDb = mDbHelper.getWritableDatabase();
         ContentValues v = new ContentValues(values);
 
-        long rowId = mSqlDb.insert(TABLE_NAME, null, v);
+        if (URI_MATCHER.match(uri) == RDS_HISTORY) {
+            long rowId = insertHistoryRow(v);
+            notifyChange(uri);
+            return ContentUris.withAppendedId(uri, rowId);
+        }
+
+        if (uri.getBooleanQueryParameter(FmStation.PARAM_UPSERT, false)) {
+            upsert(v);
+            rowUri = FmStation.getFrequencyUri(v.getAsInteger(FmStation.Station.FREQUENCY));
+            notifyChange(rowUri);
+            return rowUri;
+        }
+
+        long rowId = insertRow(v);
         if (rowId <= 0) {
             Log.e(TAG, "insert, failed to insert row into " + uri);
         }
         rowUri = ContentUris.appendId(FmStation.Station.CONTENT_URI.buildUpon(), rowId)
                 .build();
-        getContext().getContentResolver().notifyChange(rowUri, null);
+        Integer frequency = v.getAsInteger(FmStation.Station.FREQUENCY);
+        notifyChange(frequency != null ? FmStation.getFrequencyUri(frequency) : rowUri);
         return rowUri;
     }
 
+    /**
+     * Insert rows in one transaction, with a single change notification
+     *
+     * @param uri The insert uri
+     * @param values The rows to insert
+     *
+     * @return The number of rows inserted
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        int rows = 0;
+        boolean isHistory = URI_MATCHER.match(uri) == RDS_HISTORY;
+        mSqlDb = mDbHelper.getWritableDatabase();
+        mSqlDb.beginTransaction();
+        try {
+            for (ContentValues v : values) {
+                if ((isHistory ? insertHistoryRow(v) : insertRow(v)) > 0) {
+                    rows++;
+                }
+            }
+            mSqlDb.setTransactionSuccessful();
+        } finally {
+            mSqlDb.endTransaction();
+        }
+        if (rows > 0) {
+            notifyChange(uri);
+        }
+        return rows;
+    }
+
+    /**
+     * Apply the operations in one transaction, with a single change
+     * notification
+     *
+     * @param operations The operations to apply
+     *
+     * @return The results of the operations
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        ContentProviderResult[] results;
+        mSqlDb = mDbHelper.getWritableDatabase();
+        mSqlDb.beginTransaction();
+        mInBatch.set(Boolean.TRUE);
+        try {
+            results = super.applyBatch(operations);
+            mSqlDb.setTransactionSuccessful();
+        } finally {
+            mInBatch.remove();
+            mSqlDb.endTransaction();
+        }
+        notifyChange(FmStation.Station.CONTENT_URI);
+        return results;
+    }
+
+    /**
+     * Insert a row, a station which is already in database is kept as is
+     *
+     * @return The row id, -1 if nothing was inserted
+     */
+    private long insertRow(ContentValues values) {
+        return mSqlDb.insertWithOnConflict(TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Insert an RDS history row, replacing the row in the same slot
+     *
+     * @return The row id, -1 if nothing was inserted
+     */
+    private long insertHistoryRow(ContentValues values) {
+        return mSqlDb.insertWithOnConflict(HISTORY_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * @return Whether the selection is the one of FmStation's single station
+     *         helpers
+     */
+    private static boolean isFrequencySelection(String selection, String[] selectionArgs) {
+        return (FmStation.Station.FREQUENCY + "=?").equals(selection)
+                && selectionArgs != null && selectionArgs.length == 1;
+    }
+
+    /**
+     * Get the set of station columns in the values as a mask over
+     * STATION_COLUMNS, without building any string
+     *
+     * @param values The values
+     *
+     * @return The column mask, or -1 if the values name other columns
+     */
+    private static int getColumnMask(ContentValues values) {
+        int mask = 0;
+        int count = 0;
+        for (int i = 0; i < STATION_COLUMNS.length; i++) {
+            if (values.containsKey(STATION_COLUMNS[i])) {
+                mask |= 1 << i;
+                count++;
+            }
+        }
+        return count == values.size() ? mask : -1;
+    }
+
+    /**
+     * Bind the values of the columns in the mask, in column order
+     *
+     * @param statement The statement to bind
+     * @param mask The column mask
+     * @param values The values
+     *
+     * @return The index of the next unbound parameter
+     */
+    private static int bindColumns(SQLiteStatement statement, int mask, ContentValues values) {
+        statement.clearBindings();
+        int index = 1;
+        for (int i = 0; i < STATION_COLUMNS.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                DatabaseUtils.bindObjectToProgram(statement, index++,
+                        values.get(STATION_COLUMNS[i]));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Update the columns of one station with a compiled statement
+     *
+     * @param values The values to update
+     * @param mask The column mask of the values
+     * @param frequency The station frequency
+     *
+     * @return The number of rows updated
+     */
+    private int updateByFrequency(ContentValues values, int mask, String frequency) {
+        synchronized (mUpdateStatements) {
+            SQLiteStatement statement = mUpdateStatements.get(mask);
+            if (statement == null) {
+                StringBuilder sql = new StringBuilder("UPDATE ").append(TABLE_NAME)
+                        .append(" SET ");
+                for (int i = 0, n = 0; i < STATION_COLUMNS.length; i++) {
+                    if ((mask & (1 << i)) != 0) {
+                        sql.append(n++ == 0 ? "" : ",").append(STATION_COLUMNS[i]).append("=?");
+                    }
+                }
+                sql.append(" WHERE ").append(FmStation.Station.FREQUENCY).append("=?");
+                statement = mSqlDb.compileStatement(sql.toString());
+                mUpdateStatements.put(mask, statement);
+            }
+            statement.bindString(bindColumns(statement, mask, values), frequency);
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Narrow the notified uri down to a single frequency when the selection
+     * is about one station, so observers can drop just that station
+     */
+    private static Uri getChangeUri(Uri uri, String selection, String[] selectionArgs) {
+        if (isFrequencySelection(selection, selectionArgs)) {
+            try {
+                return FmStation.getFrequencyUri(Integer.parseInt(selectionArgs[0]));
+            } catch (NumberFormatException e) {
+                return uri;
+            }
+        }
+        return uri;
+    }
+
+    private void notifyChange(Uri uri) {
+        if (mInBatch.get() == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Insert a row, or update the given columns of the row with the same
+     * frequency, in one statement
+     *
+     * @param values The values, must contain the frequency
+     */
+    private void upsert(ContentValues values) {
+        int mask = getColumnMask(values);
+        if (mask < 0 || (mask & FREQUENCY_BIT) == 0) {
+            throw new IllegalArgumentException("Cannot upsert " + values);
+        }
+        synchronized (mUpsertStatements) {
+            SQLiteStatement statement = mUpsertStatements.get(mask);
+            if (statement == null) {
+                StringBuilder columns = new StringBuilder();
+                StringBuilder params = new StringBuilder();
+                StringBuilder updates = new StringBuilder();
+                for (int i = 0; i < STATION_COLUMNS.length; i++) {
+                    if ((mask & (1 << i)) == 0) {
+                        continue;
+                    }
+                    String column = STATION_COLUMNS[i];
+                    if (columns.length() > 0) {
+                        columns.append(',');
+                        params.append(',');
+                    }
+                    columns.append(column);
+                    params.append('?');
+                    if ((1 << i) != FREQUENCY_BIT) {
+                        if (updates.length() > 0) {
+                            updates.append(',');
+                        }
+                        updates.append(column).append("=excluded.").append(column);
+                    }
+                }
+                String sql = "INSERT INTO " + TABLE_NAME + "(" + columns + ") VALUES("
+                        + params + ") ON CONFLICT(" + FmStation.Station.FREQUENCY + ") "
+                        + (updates.length() == 0 ? "DO NOTHING" : "DO UPDATE SET " + updates);
+                statement = mSqlDb.compileStatement(sql);
+                mUpsertStatements.put(mask, statement);
+            }
+            bindColumns(statement, mask, values);
+            statement.executeUpdateDelete();
+        }
+    }
+
     /**
      * Create database helper
      *
@@ -198,17 +517,18 @@ public class FmProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
-        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
-        qb.setTables(TABLE_NAME);
 
         int match = URI_MATCHER.match(uri);
 
         if (STATION_FREQ_ID == match) {
-            qb.appendWhere("_id = " + uri.getPathSegments().get(1));
+            selection = FmStation.Station._ID + "=" + uri.getPathSegments().get(1)
+                    + (TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")");
         }
 
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+        Cursor c = db.query(RDS_HISTORY == match ? HISTORY_TABLE_NAME : TABLE_NAME, projection,
+                selection, selectionArgs, null, null, sortOrder,
+                uri.getQueryParameter(FmStation.PARAM_LIMIT));
         if (null != c) {
             c.setNotificationUri(getContext().getContentResolver(), uri);
         }
@@ -232,8 +552,13 @@ public class FmProvider extends ContentProvider {
         mSqlDb = mDbHelper.getWritableDatabase();
         switch (URI_MATCHER.match(uri)) {
             case STATION_FREQ:
-                rows = mSqlDb.update(TABLE_NAME, values, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                int mask = getColumnMask(values);
+                if (isFrequencySelection(selection, selectionArgs) && mask > 0) {
+                    rows = updateByFrequency(values, mask, selectionArgs[0]);
+                } else {
+                    rows = mSqlDb.update(TABLE_NAME, values, selection, selectionArgs);
+                }
+                notifyChange(getChangeUri(uri, selection, selectionArgs));
                 break;
             case STATION_FREQ_ID:
                 String stationID = uri.getPathSegments().get(1);
@@ -244,7 +569,7 @@ public class FmProvider extends ContentProvider {
                                 + stationID
                                 + (TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")"),
                         selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 break;
             default:
                 Log.e(TAG, "update, unkown URI to update: " + uri);
@@ -79,7 +79,7 @@ public class FmRecordActivity extends Activity implements
     private boolean mIsInBackground = false;
     private int mRecordState = FmRecorder.STATE_INVALID;
     private boolean mRecordingStarted = false;
-    private int mCurrentStation = FmUtils.DEFAULT_STATION;
+    private int mCurrentStation = FmUtils.getDefaultStation();
 
     // Notification manager
     private static Object mNotificationLock = new Object();
@@ -91,6 +91,7 @@ public class FmRecordActivity extends Activity implements
         super.onCreate(savedInstanceState);
         Log.d(TAG, "onCreate");
         mContext = getApplicationContext();
+        FmUtils.loadBandPlan(mContext);
         mFragmentManager = getFragmentManager();
         setContentView(R.layout.fm_record_activity);
 
@@ -123,7 +124,7 @@ public class FmRecordActivity extends Activity implements
         } else {
             Intent intent = getIntent();
             mCurrentStation = intent.getIntExtra(FmStation.CURRENT_STATION,
-                    FmUtils.DEFAULT_STATION);
+                    FmUtils.getDefaultStation());
             mRecordState = intent.getIntExtra("last_record_state", FmRecorder.STATE_INVALID);
             mRecordingStarted = intent.getBooleanExtra("recording_started", false);
         }
@@ -203,8 +204,8 @@ public class FmRecordActivity extends Activity implements
             PendingIntent pendingIntent = PendingIntent.getActivity(mContext, 0, intent,
                     PendingIntent.FLAG_UPDATE_CURRENT);
 
-            Bitmap largeIcon = FmUtils.createNotificationLargeIcon(mContext,
-                    FmUtils.formatStation(mCurrentStation));
+            Bitmap largeIcon = ArtworkCache.getInstance(mContext)
+                    .get(mCurrentStation, ArtworkCache.SIZE_LARGE_ICON);
             notificationBuilder = new Builder(this, mService.NOTIFICATION_CHANNEL)
                     .setContentText(getText(R.string.record_notification_message))
                     .setShowWhen(false)
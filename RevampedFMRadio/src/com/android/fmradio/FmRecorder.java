@@ -160,7 +160,9 @@ public class FmRecorder implements AudioRecorder.Callback {
                     mRecorder.stopRecording();
                 }
 
-                mRecorder = new AudioRecorder(mInputFormat, mRecordFile);
+                mRecorder = new AudioRecorder(mInputFormat, mRecordFile,
+                        context.getResources().getInteger(
+                                R.integer.config_recordingOverflowPolicy));
                 mRecorder.setCallback(this);
                 mRecordStartTime = SystemClock.elapsedRealtime();
                 mIsRecordingFileSaved = false;
@@ -449,10 +451,10 @@ public class FmRecorder implements AudioRecorder.Callback {
         }
     }
 
-    public void encode(byte bytes[]) {
+    public void encode(PcmBufferPool.Slab slab) {
         synchronized (mRecorderLock) {
             if (mRecorder != null) {
-                mRecorder.encode(bytes);
+                mRecorder.encode(slab);
             }
         }
     }
@@ -462,6 +464,35 @@ public class FmRecorder implements AudioRecorder.Callback {
         return res.getString(R.string.audio_save_dir_name);
     }
 
+    /**
+     * Capture PCM straight into the recorder buffer
+     *
+     * @param source Fills the given region with PCM
+     * @param length The number of bytes wanted
+     *
+     * @return The number of bytes captured, or -1 if the caller has to read
+     *         the audio by itself
+     */
+    public int capture(AudioRecorder.PcmSource source, int length) {
+        synchronized (mRecorderLock) {
+            if (mRecorder != null) {
+                return mRecorder.capture(source, length);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the PCM ring buffer counters of the current recording
+     *
+     * @return The counters, or null if not recording
+     */
+    public String getRingBufferStats() {
+        synchronized (mRecorderLock) {
+            return mRecorder == null ? null : mRecorder.getRingBufferStats();
+        }
+    }
+
     public long getFileSize() {
         return mRecordFile == null ? 0 : mRecordFile.length();
     }
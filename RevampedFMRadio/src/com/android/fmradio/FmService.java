@@ -25,14 +25,12 @@ import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothProfile;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
-import android.database.Cursor;
-import android.graphics.Bitmap;
+import android.content.res.Resources;
+import android.graphics.drawable.Icon;
 import android.media.AudioAttributes;
 import android.media.AudioDevicePort;
 import android.media.AudioDevicePortConfig;
@@ -62,16 +60,20 @@ import android.os.Message;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.KeyEvent;
 
-import com.android.fmradio.FmStation.Station;
-
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Background service to control FM or do background tasks.
@@ -86,10 +88,11 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private static final String FM_SEEK_NEXT = "fmradio.seek.next";
     private static final String FM_TURN_ON = "fmradio.turnon";
     private static final String FM_TURN_OFF = "fmradio.turnoff";
+    private static final String FM_NOTIFICATION_DELETED = "fmradio.notification.deleted";
     private static final String CMDPAUSE = "pause";
 
     // HandlerThread Keys
-    private static final String FM_FREQUENCY = "frequency";
+    private static final String FM_STATION = "station";
     private static final String OPTION = "option";
     private static final String RECODING_FILE_NAME = "name";
 
@@ -131,8 +134,22 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     // The show name in save dialog but saved in service
     // If modify the save title it will be not null, otherwise it will be null
     private String mModifiedRecordingName = null;
-    // record the listener list, will notify all listener in list
-    private ArrayList<Record> mRecords = new ArrayList<Record>();
+    // record the listener list, will notify all listener in list. Copied on
+    // write, so events are dispatched without holding a lock
+    private final CopyOnWriteArrayList<Record> mRecords = new CopyOnWriteArrayList<Record>();
+    // Latest PS and RT not yet dispatched, null if none, guarded by
+    // mPendingStateLock. Only the latest value of a dispatch cycle is sent.
+    private final Object mPendingStateLock = new Object();
+    private String mPendingPs = null;
+    private String mPendingRt = null;
+    private final Runnable mStateDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPendingState();
+        }
+    };
+    private static final FmMetrics.Counter sCoalescedStateEvents =
+            FmMetrics.counter("listener.coalesced");
     // record FM whether in recording mode
     private boolean mIsInRecordingMode = false;
     // record sd card path when start recording
@@ -144,25 +161,50 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     // RT String
     private String mRtTextString = "";
     // Notification target class name
+    // guarded by mNotificationLock
     private String mTargetClassName = "com.android.fmradio.FmMainActivity";
-    // RDS thread use to receive the information send by station
-    private Thread mRdsThread = null;
-    // record whether RDS thread exit
-    private boolean mIsRdsThreadExit = false;
+    // RDS reader use to receive the information send by station
+    private volatile RdsReader mRdsReader = null;
+    // Decoders of the RDS reader thread, PS values are interned per station
+    private final RdsTextDecoder mPsDecoder = new RdsTextDecoder(true);
+    private final RdsTextDecoder mRtDecoder = new RdsTextDecoder(false);
+    // Last PS and RT decoded by the RDS reader thread, whether shown or not
+    private String mLastDecodedPs = "";
+    private String mLastDecodedRt = "";
+    // Writes PS and RT to the database when they change
+    private RdsPersister mRdsPersister = null;
+    // Whether the screen is interactive, RDS data is not shown otherwise
+    private volatile boolean mIsScreenOn = true;
+    // Power policy state, guarded by mPowerPolicyLock
+    private final Object mPowerPolicyLock = new Object();
+    private boolean mIsWatched = true;
+    // The chip was put in low power mode by the policy
+    private boolean mIsLowPower = false;
+    // PS/RT events and notification updates are held back while unwatched
+    private volatile boolean mIsUiDispatchPaused = false;
+    // A notification update was held back
+    private volatile boolean mIsNotificationUpdateDeferred = false;
+    private static final FmMetrics.Counter sLowPowerEntries =
+            FmMetrics.counter("powerPolicy.lowPowerEntries");
+    // Nobody watches for this long before the chip enters low power, so
+    // moving between activities or to the notification does not toggle it
+    private static final long LOW_POWER_DELAY_MS = 2000;
 
     // State variables
     // Record whether FM is in native scan state
-    private boolean mIsNativeScanning = false;
+    private volatile boolean mIsNativeScanning = false;
     // Record whether FM is in scan thread
     private boolean mIsScanning = false;
     // Record whether FM is in seeking state
-    private boolean mIsNativeSeeking = false;
+    private volatile boolean mIsNativeSeeking = false;
     // Record whether FM is in native seek
     private boolean mIsSeeking = false;
     // Record whether searching progress is canceled
-    private boolean mIsStopScanCalled = false;
+    private volatile boolean mIsStopScanCalled = false;
     // Record whether is speaker used
     private boolean mIsSpeakerUsed = true;
+    // The tuner, the FM chip unless a simulated one is configured
+    private FmTuner mTuner;
     // Record whether device is open
     private boolean mIsDeviceOpen = false;
     // Record Power Status
@@ -173,8 +215,38 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private NotificationManager mNotificationManager = null;
     private NotificationChannel mNotificationChannel = null;
     private MediaSession mSession;
-    private String mCachedArtworkKey = null;
-    private Bitmap mCachedArtwork = null;
+    // Notification intents and actions, built once, the content intent again
+    // when the target activity changes
+    private PendingIntent mContentIntent = null;
+    private PendingIntent mDeleteIntent = null;
+    private Notification.Action mPrevAction = null;
+    private Notification.Action mNextAction = null;
+    private Notification.Action mPlayAction = null;
+    private Notification.Action mPauseAction = null;
+    // What the playing notification shows, guarded by mNotificationLock.
+    // Also read by the power policy, the notification is visible while set.
+    private volatile boolean mIsPlayingNotificationShown = false;
+    private int mShownStation = 0;
+    private String mShownStationName = null;
+    private String mShownRadioText = null;
+    private boolean mShownIsPlaying = false;
+    // RDS driven notification updates are coalesced within this window
+    private long mNotificationUpdateWindowMs = 0;
+    private long mLastNotificationUpdateTime = 0;
+    // Runs coalesced notification updates and listener state events
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mNotificationUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updatePlayingNotification();
+        }
+    };
+    private static final FmMetrics.Counter sNotificationsPosted =
+            FmMetrics.counter("notification.posted");
+    private static final FmMetrics.Counter sNotificationsUnchanged =
+            FmMetrics.counter("notification.unchanged");
+    private static final FmMetrics.Counter sNotificationsCoalesced =
+            FmMetrics.counter("notification.coalesced");
 
     public static int POWER_UP = 0;
     public static int DURING_POWER_UP = 1;
@@ -202,7 +274,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private boolean mIsAudioFocusHeld = false;
     // Focus transient lost
     private boolean mPausedByTransientLossOfFocus = false;
-    private int mCurrentStation = FmUtils.DEFAULT_STATION;
+    private int mCurrentStation = FmUtils.getDefaultStation();
     // Headset plug state (0:long antenna plug in, 1:long antenna plug out)
     private int mValueHeadSetPlug = 1;
     // For bind service
@@ -230,6 +302,17 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
 
     // Audio Patch
     private AudioPatch mAudioPatch = null;
+    // Devices a hardware patch from the tuner can play to
+    private static final int PATCH_SINK_NONE = 0;
+    private static final int PATCH_SINK_EARPHONE = 1;
+    private static final int PATCH_SINK_SPEAKER = 2;
+    // Sink of mAudioPatch
+    private int mPatchSink = PATCH_SINK_NONE;
+    // Route the speaker through a hardware patch when the HAL accepts it
+    private boolean mUseSpeakerAudioPatch = false;
+    // The HAL refused a speaker patch since the last power up
+    private boolean mIsSpeakerPatchRejected = false;
+    private final AudioPathStats mAudioPathStats = new AudioPathStats();
     private Object mRenderLock = new Object();
 
     @Override
@@ -237,6 +320,35 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         return mBinder;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("FmService state:");
+        writer.println("  mPowerStatus=" + mPowerStatus);
+        writer.println("  mCurrentStation=" + mCurrentStation);
+        writer.println("  Band: " + BandPlan.getCurrent());
+        writer.println("  mIsRender=" + mIsRender + " mAudioPatch=" + mAudioPatch
+                + " mPatchSink=" + mPatchSink);
+        writer.println("  Audio path: " + mAudioPathStats);
+        writer.println("  Render buffers: " + mRenderBuffer);
+        writer.println("  PCM buffer pool: hits=" + mPcmBufferPool.getHits()
+                + " misses=" + mPcmBufferPool.getMisses());
+        writer.println("  PCM copies (" + (mUseDirectCapture ? "direct" : "heap") + " capture): "
+                + PcmCopyStats.dump());
+        if (mFmRecorder != null) {
+            writer.println("  Recorder ring: " + mFmRecorder.getRingBufferStats());
+        }
+        writer.println("  RDS: " + mRdsReader);
+        writer.println("  Power policy: watched=" + mIsWatched + " lowPower=" + mIsLowPower);
+        writer.println("  RDS persistence: " + mRdsPersister);
+        writer.println("  Stations: " + StationCache.getInstance(mContext));
+        writer.println("  Artwork: " + ArtworkCache.getInstance(mContext));
+        writer.println("  Scan results: " + mScanResultCache);
+        writer.println("  Last power up: " + mLastPowerUpTrace);
+        writer.println("  Command queue: depth=" + mFmServiceHandler.getQueueDepth()
+                + " maxDepth=" + mFmServiceHandler.getMaxQueueDepth());
+        FmMetrics.dump(writer);
+    }
+
     /**
      * class use to return service instance
      */
@@ -266,13 +378,13 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
 
             if (CMDPAUSE.equals(command)) {
                 // need remove all messages, make power down will be execute
-                mFmServiceHandler.removeCallbacksAndMessages(null);
+                mFmServiceHandler.removeAllCommands();
                 Log.d(TAG, "Stopping FM playback");
                 powerDownAsync();
             } else if (SOUND_POWER_DOWN_MSG.equals(action)) {
                 // phone shut down, so exit FM
                 // need remove all messages, make power down will be execute
-                mFmServiceHandler.removeCallbacksAndMessages(null);
+                mFmServiceHandler.removeAllCommands();
                 exitFm();
                 stopSelf();
                 // phone shut down, so exit FM
@@ -281,16 +393,16 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                  * here exitFm, system will send broadcast, system will shut
                  * down, so fm does not need call back to activity
                  */
-                mFmServiceHandler.removeCallbacksAndMessages(null);
+                mFmServiceHandler.removeAllCommands();
                 exitFm();
                 // screen on, if FM play, open rds
             } else if (Intent.ACTION_SCREEN_ON.equals(action)) {
-                FmNative.setNormalPowerMode();
-                setRdsAsync(true);
+                mIsScreenOn = true;
+                updatePowerPolicy();
                 // screen off, if FM play, close rds
             } else if (Intent.ACTION_SCREEN_OFF.equals(action)) {
-                setRdsAsync(false);
-                FmNative.setLowPowerMode();
+                mIsScreenOn = false;
+                updatePowerPolicy();
                 // switch antenna when headset plug in or plug out
             } else if (Intent.ACTION_HEADSET_PLUG.equals(action)) {
                 // switch antenna should not impact audio focus status
@@ -310,7 +422,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                  * foreground. power up FM automatic
                  */
                 if (isHeadSetIn() && isActivityForeground()) {
-                    powerUpAsync(FmUtils.computeFrequency(mCurrentStation));
+                    powerUpAsync(mCurrentStation);
                 }
 
                 // Notify UI
@@ -388,6 +500,48 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         setForceUse(isSpeaker);
     }
 
+    /**
+     * Select how software rendering buffers audio
+     *
+     * @param mode One of the RenderBufferController MODE_ constants
+     */
+    public void setRenderBufferMode(int mode) {
+        Log.d(TAG, "setRenderBufferMode " + mode);
+        FmUtils.setRenderBufferMode(mContext, mode);
+        mRenderBuffer.setMode(mode);
+        if (mIsRender) {
+            // the performance mode needs a new track
+            startRender();
+        }
+    }
+
+    /**
+     * @return The buffering mode of software rendering
+     */
+    public int getRenderBufferMode() {
+        return mRenderBuffer.getMode();
+    }
+
+    /**
+     * Switch the band region, the tuner follows and leaves a station the
+     * new band does not have
+     *
+     * @param region One of the BandPlan REGION_ constants
+     */
+    public void setBandRegionAsync(int region) {
+        Log.d(TAG, "setBandRegionAsync " + region);
+        FmUtils.setBandRegion(mContext, region);
+        supersede(FmListener.MSGID_SET_REGION_FINISHED);
+        mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_SET_REGION_FINISHED);
+    }
+
+    /**
+     * @return The band region, one of the BandPlan REGION_ constants
+     */
+    public int getBandRegion() {
+        return BandPlan.getCurrent().mRegion;
+    }
+
     /**
      * Check if BT headset is connected
      * @return true if current is playing with BT headset
@@ -404,30 +558,58 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
 
         exitRenderThread();
 
-       // need to create new audio record and audio play back track,
-       // because input/output device may be changed.
-       if (mAudioRecord != null) {
-           mAudioRecord.stop();
-           mAudioRecord.release();
-           mAudioRecord = null;
-       }
-       if (mAudioTrack != null) {
-           mAudioTrack.stop();
-           mAudioTrack.release();
-           mAudioTrack = null;
-       }
-       initAudioRecordSink();
+        // need to create new audio record and audio play back track,
+        // because input/output device may be changed. A sink prepared by
+        // the power up that is starting now is fresh already.
+        if (!mIsSinkPrepared) {
+            releaseAudioRecordSink();
+            initAudioRecordSink();
+        }
+        mIsSinkPrepared = false;
 
         mIsRender = true;
+        updateAudioPath();
+        PcmCopyStats.reset();
         createRenderThread();
         synchronized (mRenderLock) {
             mRenderLock.notify();
         }
     }
 
+    /**
+     * Create a new audio record and track ahead of startRender(), while the
+     * tuner powers up
+     */
+    private synchronized void prepareAudioSink() {
+        if (mIsRender) {
+            return;
+        }
+        releaseAudioRecordSink();
+        initAudioRecordSink();
+        mIsSinkPrepared = true;
+    }
+
+    private synchronized void releaseAudioRecordSink() {
+        mIsSinkPrepared = false;
+        if (mAudioRecord != null) {
+            // never started when the audio comes from the simulated tuner
+            if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                mAudioRecord.stop();
+            }
+            mAudioRecord.release();
+            mAudioRecord = null;
+        }
+        if (mAudioTrack != null) {
+            mAudioTrack.stop();
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
+    }
+
     private synchronized void stopRender() {
         Log.d(TAG, "stopRender");
         mIsRender = false;
+        updateAudioPath();
         // HACK: Set volume to 0 to squelch any output between the call to
         // stopRender and the render thread calling AudioTrack.stop
         mAudioTrack.setVolume(0.0f);
@@ -452,13 +634,89 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
 
     private Thread mRenderThread = null;
     private AudioRecord mAudioRecord = null;
+    // Audio of the simulated tuner, rendered instead of mAudioRecord, null
+    // with the FM chip
+    private AudioRecorder.PcmSource mSimulatedPcm = null;
     private AudioTrack mAudioTrack = null;
     private static final int SAMPLE_RATE = 44100;
     private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_CONFIGURATION_STEREO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final int RECORD_BUF_SIZE = AudioRecord.getMinBufferSize(SAMPLE_RATE,
             CHANNEL_CONFIG, AUDIO_FORMAT);
+    private static final int TRACK_MIN_BUF_SIZE = AudioTrack.getMinBufferSize(SAMPLE_RATE,
+            AudioFormat.CHANNEL_OUT_STEREO, AUDIO_FORMAT);
+    // Chunk and track buffer sizes of software rendering
+    private RenderBufferController mRenderBuffer = null;
+    // Slabs in flight: only the one being rendered, the recorder copies it
+    private static final int PCM_BUFFER_POOL_SIZE = 1;
+    private PcmBufferPool mPcmBufferPool = null;
+    // Capture into direct buffers with AudioRecord.read(ByteBuffer)
+    private boolean mUseDirectCapture = false;
+    // Scan by chaining seeks and report every station as it is found
+    private boolean mUseIncrementalScan = false;
+    // Scan results of the visited areas
+    private ScanResultCache mScanResultCache = null;
+    // Location cell of the next scan, null if unknown
+    private volatile String mScanCell = null;
+    // Sweep the band after restoring the stations of a known area
+    private boolean mVerifyCachedScan = false;
+    // MSGID_SCAN_FINISHED arg1: verification sweep after a restore. It is a
+    // muted foreground scan holding the tuner, a user tune or seek cancels it.
+    private static final int SCAN_VERIFY = 1;
+    // A verification sweep is running
+    private volatile boolean mIsVerifyingScan = false;
     private boolean mIsRender = false;
+    // The audio record and track were created by the running power up
+    private boolean mIsSinkPrepared = false;
+    // Power up waiting for its first audible frame
+    private volatile PowerUpTrace mPowerUpTrace = null;
+    // Latest power up, for dumpsys
+    private volatile PowerUpTrace mLastPowerUpTrace = null;
+    // Longest wait for the work done in parallel with the tuner power up
+    private static final long POWER_UP_PREPARE_TIMEOUT_MS = 1000;
+    // Handling time of each service handler message, by message id
+    private static final SparseArray<FmMetrics.Histogram> sMessageLatencies =
+            new SparseArray<FmMetrics.Histogram>();
+    // Time each message spent queued before it ran, by message id
+    private static final SparseArray<FmMetrics.Histogram> sMessageWaits =
+            new SparseArray<FmMetrics.Histogram>();
+    // Pending commands dropped for a newer or preempting one
+    private static final FmMetrics.Counter sSupersededCommands =
+            FmMetrics.counter("handler.superseded");
+    // In-flight seeks and scans aborted
+    private static final FmMetrics.Counter sCanceledSearches =
+            FmMetrics.counter("handler.canceledSearches");
+    private static final FmMetrics.Counter sPowerUpFailures =
+            FmMetrics.counter("powerUp.failures");
+    private static final FmMetrics.Counter sScansCanceled =
+            FmMetrics.counter("scan.canceled");
+
+    static {
+        addMessageLatency(FmListener.MSGID_POWERUP_FINISHED, "powerUp");
+        addMessageLatency(FmListener.MSGID_POWERDOWN_FINISHED, "powerDown");
+        addMessageLatency(FmListener.MSGID_FM_EXIT, "exit");
+        addMessageLatency(FmListener.MSGID_SWITCH_ANTENNA, "switchAntenna");
+        addMessageLatency(FmListener.MSGID_TUNE_FINISHED, "tune");
+        addMessageLatency(FmListener.MSGID_SEEK_FINISHED, "seek");
+        addMessageLatency(FmListener.MSGID_SCAN_FINISHED, "scan");
+        addMessageLatency(FmListener.MSGID_AUDIOFOCUS_CHANGED, "audioFocus");
+        addMessageLatency(FmListener.MSGID_SET_RDS_FINISHED, "setRds");
+        addMessageLatency(FmListener.MSGID_SET_MUTE_FINISHED, "setMute");
+        addMessageLatency(FmListener.MSGID_SET_REGION_FINISHED, "setRegion");
+        addMessageLatency(FmListener.MSGID_ACTIVE_AF_FINISHED, "activeAf");
+        addMessageLatency(FmListener.MSGID_HEADSET_HOOK_EVENT, "headsetHook");
+        addMessageLatency(FmListener.MSGID_HEADSET_HOOK_MULTI_CLICK_TIMEOUT, "headsetHookTimeout");
+        addMessageLatency(FmListener.MSGID_POWER_POLICY_CHANGED, "powerPolicy");
+        addMessageLatency(FmListener.MSGID_STARTRECORDING_FINISHED, "startRecording");
+        addMessageLatency(FmListener.MSGID_STOPRECORDING_FINISHED, "stopRecording");
+        addMessageLatency(FmListener.MSGID_RECORD_MODE_CHANED, "recordMode");
+        addMessageLatency(FmListener.MSGID_SAVERECORDING_FINISHED, "saveRecording");
+    }
+
+    private static void addMessageLatency(int what, String name) {
+        sMessageLatencies.put(what, FmMetrics.histogram("handler." + name));
+        sMessageWaits.put(what, FmMetrics.histogram("handler." + name + ".wait"));
+    }
 
     AudioDevicePort mAudioSource = null;
     AudioDevicePort mAudioSink = null;
@@ -481,51 +739,134 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         }
     }
 
-    class RenderThread extends Thread {
+    class RenderThread extends Thread implements AudioRecorder.PcmSource {
         private int mCurrentFrame = 0;
         private boolean isAudioFrameNeedIgnore() {
             return mCurrentFrame < AUDIO_FRAMES_TO_IGNORE_COUNT;
         }
 
+        /**
+         * Read one chunk from AudioRecord into a heap slab, play it and hand a
+         * copy of it to the recorder.
+         */
+        private void renderHeapChunk() {
+            PcmBufferPool.Slab slab = mPcmBufferPool.obtain();
+            int chunkSize = mRenderBuffer.getChunkSize();
+            int size;
+            if (mSimulatedPcm != null) {
+                slab.mBuffer.limit(chunkSize);
+                size = readSimulated(slab.mBuffer);
+            } else {
+                size = mAudioRecord.read(slab.mData, 0, chunkSize);
+            }
+            // check whether need to ignore first 3 frames audio data from AudioRecord
+            // to avoid pop noise.
+            if (isAudioFrameNeedIgnore()) {
+                mCurrentFrame += 1;
+                slab.release();
+                return;
+            }
+            if (size <= 0) {
+                Log.e(TAG, "RenderThread read data from AudioRecord "
+                        + "error size: " + size);
+                slab.release();
+                return;
+            }
+            PcmCopyStats.onChunk(size);
+            slab.mSize = size;
+            // Check again to avoid noises, because mIsRender may be changed
+            // while AudioRecord is reading.
+            if (isRender()) {
+                mAudioTrack.write(slab.mData, 0, size);
+                onFrameRendered();
+                onChunkRendered(size);
+            }
+
+            // The recorder copies the data into its own ring buffer
+            if (mFmRecorder != null) {
+                mFmRecorder.encode(slab);
+            }
+            slab.release();
+        }
+
+        /**
+         * Read one chunk from AudioRecord into a direct buffer. While recording
+         * the chunk lands straight in the recorder ring buffer, so the encoder
+         * input is filled with a single bulk copy.
+         */
+        private void renderDirectChunk() {
+            int chunkSize = mRenderBuffer.getChunkSize();
+            if (mFmRecorder != null && mFmRecorder.capture(this, chunkSize) >= 0) {
+                return;
+            }
+            PcmBufferPool.Slab slab = mPcmBufferPool.obtain();
+            slab.mBuffer.limit(chunkSize);
+            read(slab.mBuffer);
+            slab.release();
+        }
+
+        /**
+         * Fill dst from AudioRecord and play what was read
+         */
+        @Override
+        public int read(ByteBuffer dst) {
+            final int start = dst.position();
+            int size = mSimulatedPcm != null ? readSimulated(dst)
+                    : mAudioRecord.read(dst, dst.remaining(), AudioRecord.READ_BLOCKING);
+            if (isAudioFrameNeedIgnore()) {
+                mCurrentFrame += 1;
+                return 0;
+            }
+            if (size <= 0) {
+                Log.e(TAG, "RenderThread read data from AudioRecord "
+                        + "error size: " + size);
+                return 0;
+            }
+            PcmCopyStats.onChunk(size);
+            // Check again to avoid noises, because mIsRender may be changed
+            // while AudioRecord is reading.
+            if (isRender()) {
+                mAudioTrack.write(dst, size, AudioTrack.WRITE_BLOCKING);
+                dst.position(start);
+                onFrameRendered();
+                onChunkRendered(size);
+            }
+            return size;
+        }
+
+        /**
+         * Fill dst from the simulated tuner, leaving its position alone like
+         * AudioRecord does. The blocking AudioTrack write paces the loop.
+         */
+        private int readSimulated(ByteBuffer dst) {
+            final int start = dst.position();
+            int size = mSimulatedPcm.read(dst);
+            dst.position(start);
+            return size;
+        }
+
         @Override
         public void run() {
             Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
             try {
-                byte[] buffer = new byte[RECORD_BUF_SIZE];
                 while (!Thread.interrupted()) {
                     if (isRender()) {
                         // Speaker mode or BT a2dp mode will come here and keep reading and writing.
                         // If we want FM sound output from speaker or BT a2dp, we must record data
                         // to AudioRecrd and write data to AudioTrack.
-                        if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED) {
+                        if (mSimulatedPcm == null && mAudioRecord.getRecordingState()
+                                == AudioRecord.RECORDSTATE_STOPPED) {
                             mAudioRecord.startRecording();
                         }
 
                         if (mAudioTrack.getPlayState() == AudioTrack.PLAYSTATE_STOPPED) {
                             mAudioTrack.play();
                         }
-                        int size = mAudioRecord.read(buffer, 0, RECORD_BUF_SIZE);
-                        // check whether need to ignore first 3 frames audio data from AudioRecord
-                        // to avoid pop noise.
-                        if (isAudioFrameNeedIgnore()) {
-                            mCurrentFrame += 1;
-                            continue ;
-                        }
-                        if (size <= 0) {
-                            Log.e(TAG, "RenderThread read data from AudioRecord "
-                                    + "error size: " + size);
-                            continue;
-                        }
-                        byte[] tmpBuf = new byte[size];
-                        System.arraycopy(buffer, 0, tmpBuf, 0, size);
-                        // Check again to avoid noises, because mIsRender may be changed
-                        // while AudioRecord is reading.
-                        if (isRender()) {
-                            mAudioTrack.write(tmpBuf, 0, tmpBuf.length);
-                        }
-
-                        if (mFmRecorder != null) {
-                            mFmRecorder.encode(tmpBuf);
+                        mAudioPathStats.onRenderWakeup();
+                        if (mUseDirectCapture) {
+                            renderDirectChunk();
+                        } else {
+                            renderHeapChunk();
                         }
                     } else {
                         // Earphone mode will come here and wait.
@@ -559,6 +900,27 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         }
     }
 
+    /**
+     * Let the buffer controller adapt to the last chunk, called from the
+     * render thread
+     */
+    private void onChunkRendered(int size) {
+        if (mRenderBuffer.onChunkRendered(size, mAudioTrack.getUnderrunCount())) {
+            mAudioTrack.setBufferSizeInFrames(mRenderBuffer.getTrackBufferFrames());
+        }
+    }
+
+    /**
+     * Complete the trace of a power up waiting for its first frame
+     */
+    private void onFrameRendered() {
+        PowerUpTrace trace = mPowerUpTrace;
+        if (trace != null) {
+            mPowerUpTrace = null;
+            trace.finish();
+        }
+    }
+
     // A2dp or speaker mode should render
     private boolean isRender() {
         return (mIsRender && isPlaying() && mIsAudioFocusHeld);
@@ -568,6 +930,32 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         return (mForcedUseForMedia == AudioSystem.FORCE_SPEAKER);
     }
 
+    private FmTuner createTuner() {
+        Resources res = getResources();
+        if (!res.getBoolean(R.bool.config_useSimulatedTuner)) {
+            return new NativeFmTuner();
+        }
+        Log.i(TAG, "createTuner, using the simulated tuner");
+        SimulatedFmTuner.Clock clock = new SimulatedFmTuner.Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return SystemClock.elapsedRealtime();
+            }
+
+            @Override
+            public void sleep(long ms) {
+                SystemClock.sleep(ms);
+            }
+        };
+        SimulatedFmTuner tuner = new SimulatedFmTuner(BandPlan.getCurrent(), clock,
+                res.getIntArray(R.array.config_simulatedTunerStations),
+                res.getIntArray(R.array.config_simulatedTunerAlternatives),
+                res.getInteger(R.integer.config_simulatedTunerTuneLatencyMs),
+                res.getInteger(R.integer.config_simulatedTunerSeekStepLatencyMs));
+        mSimulatedPcm = tuner.getPcmSource();
+        return tuner;
+    }
+
     /**
      * open FM device, should be call before power up
      *
@@ -575,7 +963,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     private boolean openDevice() {
         if (!mIsDeviceOpen) {
-            mIsDeviceOpen = FmNative.openDev();
+            mIsDeviceOpen = mTuner.openDev();
         }
         return mIsDeviceOpen;
     }
@@ -588,7 +976,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private boolean closeDevice() {
         boolean isDeviceClose = false;
         if (mIsDeviceOpen) {
-            isDeviceClose = FmNative.closeDev();
+            isDeviceClose = mTuner.closeDev();
             mIsDeviceOpen = !isDeviceClose;
         }
         // quit looper
@@ -608,23 +996,41 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     /**
      * power up FM, and make FM voice output from earphone
      *
-     * @param frequency
+     * @param station The station to power up on
      */
-    public void powerUpAsync(float frequency) {
+    public void powerUpAsync(int station) {
         final int bundleSize = 1;
-        mFmServiceHandler.removeMessages(FmListener.MSGID_POWERUP_FINISHED);
-        mFmServiceHandler.removeMessages(FmListener.MSGID_POWERDOWN_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_POWERUP_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_POWERDOWN_FINISHED);
         Bundle bundle = new Bundle(bundleSize);
-        bundle.putFloat(FM_FREQUENCY, frequency);
+        bundle.putInt(FM_STATION, station);
         Message msg = mFmServiceHandler.obtainMessage(FmListener.MSGID_POWERUP_FINISHED);
         msg.setData(bundle);
         mFmServiceHandler.sendMessage(msg);
     }
 
-    private boolean powerUp(float frequency) {
+    private boolean powerUp(int station) {
+        return powerUp(station, null);
+    }
+
+    /**
+     * Power up the tuner
+     *
+     * @param station The station to power up on
+     * @param trace Timing of the power up stages, may be null
+     *
+     * @return true if the tuner is powered up
+     */
+    private boolean powerUp(int station, PowerUpTrace trace) {
         if (isPlaying()) {
             return true;
         }
+        synchronized (mPowerPolicyLock) {
+            // a fresh chip starts in normal power mode
+            mIsLowPower = false;
+        }
+        // give the speaker patch another chance, the route may have changed
+        mIsSpeakerPatchRejected = false;
         if (!mWakeLock.isHeld()) {
             mWakeLock.acquire();
         }
@@ -633,6 +1039,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             mPowerStatus = POWER_DOWN;
             return false;
         }
+        if (trace != null) {
+            trace.mark("audio focus");
+        }
 
         mPowerStatus = DURING_POWER_UP;
 
@@ -640,12 +1049,20 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         // power up
         if (!mIsDeviceOpen) {
             openDevice();
+            if (trace != null) {
+                trace.mark("open device");
+            }
         }
 
-        if (!FmNative.powerUp(frequency)) {
+        BandPlan plan = BandPlan.getCurrent();
+        mTuner.setRegion(plan.mNativeBand, plan.mNativeSpacing, plan.mNativeDeemphasis);
+        if (!mTuner.powerUp(station)) {
             mPowerStatus = POWER_DOWN;
             return false;
         }
+        if (trace != null) {
+            trace.mark("tuner power up");
+        }
         mPowerStatus = POWER_UP;
         // need mute after power up
         setMute(true);
@@ -653,8 +1070,8 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         return isPlaying();
     }
 
-    private boolean playFrequency(float frequency) {
-        mCurrentStation = FmUtils.computeStation(frequency);
+    private boolean playFrequency(int station) {
+        mCurrentStation = station;
         FmStation.setCurrentStation(mContext, mCurrentStation);
         // Add notification to the title bar.
         updatePlayingNotification();
@@ -687,12 +1104,43 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         // if power down Fm, should remove message first.
         // not remove all messages, because such as recorder message need
         // to execute after or before power down
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SCAN_FINISHED);
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SEEK_FINISHED);
-        mFmServiceHandler.removeMessages(FmListener.MSGID_TUNE_FINISHED);
-        mFmServiceHandler.removeMessages(FmListener.MSGID_POWERDOWN_FINISHED);
-        mFmServiceHandler.removeMessages(FmListener.MSGID_POWERUP_FINISHED);
-        mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_POWERDOWN_FINISHED);
+        supersede(FmListener.MSGID_SCAN_FINISHED);
+        supersede(FmListener.MSGID_SEEK_FINISHED);
+        supersede(FmListener.MSGID_TUNE_FINISHED);
+        supersede(FmListener.MSGID_POWERDOWN_FINISHED);
+        supersede(FmListener.MSGID_POWERUP_FINISHED);
+        // power down preempts everything: abort a running seek or scan and
+        // run ahead of the other pending commands
+        cancelNativeSearch();
+        // a message at the front of the queue has no time, pass the request time
+        mFmServiceHandler.sendCommandAtFrontOfQueue(mFmServiceHandler.obtainMessage(
+                FmListener.MSGID_POWERDOWN_FINISHED, SystemClock.uptimeMillis()));
+    }
+
+    /**
+     * Drop the pending commands of a message id, a newer one replaces them
+     *
+     * @param what The message id
+     */
+    private void supersede(int what) {
+        if (mFmServiceHandler.hasMessages(what)) {
+            sSupersededCommands.increment();
+            mFmServiceHandler.removeCommands(what);
+        }
+    }
+
+    /**
+     * Abort the native seek or scan in progress, if any
+     *
+     * @return true if a search was running and could be stopped
+     */
+    private boolean cancelNativeSearch() {
+        if (!mIsNativeScanning && !mIsNativeSeeking) {
+            return false;
+        }
+        mIsStopScanCalled = true;
+        sCanceledSearches.increment();
+        return mTuner.stopScan();
     }
 
     /**
@@ -713,7 +1161,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         setRds(false);
         enableFmAudio(false);
 
-        if (!FmNative.powerDown(0)) {
+        if (!mTuner.powerDown(0)) {
 
             if (isRdsSupported()) {
                 stopRdsThread();
@@ -749,28 +1197,43 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     /**
      * Tune to a station
      *
-     * @param frequency The frequency to tune
+     * @param station The station to tune
      *
      * @return true, success; false, fail.
      */
-    public void tuneStationAsync(float frequency) {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_TUNE_FINISHED);
+    public void tuneStationAsync(int station) {
+        // the newest tune wins over pending tunes and seeks, and a seek
+        // still running would only be tuned away from
+        supersede(FmListener.MSGID_TUNE_FINISHED);
+        supersede(FmListener.MSGID_SEEK_FINISHED);
+        if (mIsNativeSeeking || mIsVerifyingScan) {
+            cancelNativeSearch();
+        }
         final int bundleSize = 1;
         Bundle bundle = new Bundle(bundleSize);
-        bundle.putFloat(FM_FREQUENCY, frequency);
+        bundle.putInt(FM_STATION, station);
         Message msg = mFmServiceHandler.obtainMessage(FmListener.MSGID_TUNE_FINISHED);
         msg.setData(bundle);
         mFmServiceHandler.sendMessage(msg);
     }
 
-    private boolean tuneStation(float frequency) {
+    private boolean tuneStation(int station) {
+        // the driver only tunes to channels of the region's grid
+        BandPlan plan = BandPlan.getCurrent();
+        if (plan.contains(station)) {
+            station = plan.snap(station);
+        }
         if (isPlaying()) {
             setRds(false);
-            boolean bRet = FmNative.tune(frequency);
+            boolean bRet = mTuner.tune(station);
             if (bRet) {
                 setRds(true);
-                mCurrentStation = FmUtils.computeStation(frequency);
+                if (mRdsReader != null) {
+                    mRdsReader.onTuned();
+                }
+                mCurrentStation = station;
                 FmStation.setCurrentStation(mContext, mCurrentStation);
+                mRdsPersister.onStationChanged();
                 updatePlayingNotification();
             }
             setMute(false);
@@ -785,8 +1248,8 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         // if not power up yet, should powerup first
         boolean tune = false;
 
-        if (powerUp(frequency)) {
-            tune = playFrequency(frequency);
+        if (powerUp(station)) {
+            tune = playFrequency(station);
         }
 
         return tune;
@@ -795,31 +1258,43 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     /**
      * Seek station according frequency and direction
      *
-     * @param frequency start frequency(100KHZ, 87.5)
+     * @param station start station(100KHZ, 875)
      * @param isUp direction(true, next station; false, previous station)
      *
      * @return the frequency after seek
      */
-    public void seekStationAsync(float frequency, boolean isUp) {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SEEK_FINISHED);
+    public void seekStationAsync(int station, boolean isUp) {
+        // the chip seeks from where it is tuned, so a pending tune must run
+        // first, only pending seeks are replaced
+        supersede(FmListener.MSGID_SEEK_FINISHED);
+        if (mIsVerifyingScan) {
+            // the user does not wait for a sweep they did not ask for
+            cancelNativeSearch();
+        }
         final int bundleSize = 2;
         Bundle bundle = new Bundle(bundleSize);
-        bundle.putFloat(FM_FREQUENCY, frequency);
+        bundle.putInt(FM_STATION, station);
         bundle.putBoolean(OPTION, isUp);
         Message msg = mFmServiceHandler.obtainMessage(FmListener.MSGID_SEEK_FINISHED);
         msg.setData(bundle);
         mFmServiceHandler.sendMessage(msg);
     }
 
-    private float seekStation(float frequency, boolean isUp) {
+    private int seekStation(int station, boolean isUp) {
         if (mPowerStatus != POWER_UP) {
             return -1;
         }
 
         setRds(false);
+        // a cancel which came too late for the previous search is stale
+        mIsStopScanCalled = false;
         mIsNativeSeeking = true;
-        float fRet = FmNative.seek(frequency, isUp);
+        int fRet = mTuner.seek(station, isUp);
         mIsNativeSeeking = false;
+        if (mIsStopScanCalled) {
+            // canceled, do not tune to where the search stopped
+            fRet = -1;
+        }
         // make mIsStopScanCalled false, avoid stop scan make this true,
         // when start scan, it will return null.
         mIsStopScanCalled = false;
@@ -830,7 +1305,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * Scan stations
      */
     public void startScanAsync() {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SCAN_FINISHED);
+        supersede(FmListener.MSGID_SCAN_FINISHED);
         mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_SCAN_FINISHED);
     }
 
@@ -840,11 +1315,11 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         setRds(false);
         setMute(true);
         short[] stationsInShort = null;
-        if (!mIsStopScanCalled) {
-            mIsNativeScanning = true;
-            stationsInShort = FmNative.autoScan();
-            mIsNativeScanning = false;
-        }
+        // a cancel which came too late for the previous search is stale
+        mIsStopScanCalled = false;
+        mIsNativeScanning = true;
+        stationsInShort = mTuner.autoScan();
+        mIsNativeScanning = false;
 
         setRds(true);
         if (mIsStopScanCalled) {
@@ -867,6 +1342,71 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         return stations;
     }
 
+    /**
+     * Scan the band by chaining seeks, so every station is stored and
+     * reported to the activity as soon as it is found
+     *
+     * @return The stations found, or {-100} if the scan was canceled. The
+     *         stations found until then are kept in database.
+     */
+    private int[] startIncrementalScan() {
+        setRds(false);
+        setMute(true);
+        int[] found = new int[FmUtils.getChannelCount()];
+        int stationNum = 0;
+        // a cancel which came too late for the previous search is stale
+        mIsStopScanCalled = false;
+        mIsNativeScanning = true;
+        // the chip seeks from the station it is tuned to, whatever the
+        // station passed, so start from the bottom of the band
+        int start = BandPlan.getCurrent().mLowStation;
+        if (!mTuner.tune(start)) {
+            Log.w(TAG, "startIncrementalScan, failed to tune to " + start);
+        }
+        int station = start;
+        while (!mIsStopScanCalled && stationNum < found.length) {
+            int nextStation = mTuner.seek(station, true);
+            // found nothing, a seek failing returns the station it started from
+            if (mIsStopScanCalled || !FmUtils.isValidStation(nextStation)
+                    || nextStation == station) {
+                break;
+            }
+            // past the top the seek wraps around to the lowest station, which
+            // is new only if it is on the start channel the seeks skipped
+            boolean isWrapped = nextStation < station;
+            if (isWrapped && nextStation != start) {
+                break;
+            }
+            found[stationNum++] = nextStation;
+            station = nextStation;
+            FmStation.insertStationToDb(mContext, nextStation, null);
+
+            Bundle bundle = new Bundle(3);
+            bundle.putInt(FmListener.CALLBACK_FLAG, FmListener.MSGID_SCAN_PROGRESS);
+            bundle.putInt(FmListener.KEY_SCAN_STATION, nextStation);
+            bundle.putInt(FmListener.KEY_STATION_NUM, stationNum);
+            notifyCurrentActivityStateChanged(bundle);
+            if (isWrapped) {
+                break;
+            }
+        }
+        mIsNativeScanning = false;
+        setRds(true);
+        Log.d(TAG, "startIncrementalScan, found " + stationNum + " stations, canceled: "
+                + mIsStopScanCalled);
+
+        if (mIsStopScanCalled) {
+            mIsStopScanCalled = false;
+            return new int[] {
+                -100
+            };
+        }
+        // in band order, the start channel is found last
+        int[] stations = Arrays.copyOf(found, stationNum);
+        Arrays.sort(stations);
+        return stations;
+    }
+
     /**
      * Check FM Radio is in scan progress or not
      *
@@ -886,14 +1426,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             return false;
         }
 
-        boolean bRet = false;
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SCAN_FINISHED);
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SEEK_FINISHED);
-        if (mIsNativeScanning || mIsNativeSeeking) {
-            mIsStopScanCalled = true;
-            bRet = FmNative.stopScan();
-        }
-        return bRet;
+        supersede(FmListener.MSGID_SCAN_FINISHED);
+        supersede(FmListener.MSGID_SEEK_FINISHED);
+        return cancelNativeSearch();
     }
 
     /**
@@ -912,7 +1447,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     public void setRdsAsync(boolean on) {
         final int bundleSize = 1;
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SET_RDS_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_SET_RDS_FINISHED);
         Bundle bundle = new Bundle(bundleSize);
         bundle.putBoolean(OPTION, on);
         Message msg = mFmServiceHandler.obtainMessage(FmListener.MSGID_SET_RDS_FINISHED);
@@ -926,7 +1461,13 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         }
         int ret = -1;
         if (isRdsSupported()) {
-            ret = FmNative.setRds(on);
+            synchronized (mPowerPolicyLock) {
+                // the power policy turns RDS back on when it leaves low power
+                if (on && mIsLowPower) {
+                    return -1;
+                }
+                ret = mTuner.setRds(on);
+            }
         }
         return ret;
     }
@@ -955,7 +1496,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @return AF frequency
      */
     public void activeAfAsync() {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_ACTIVE_AF_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_ACTIVE_AF_FINISHED);
         mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_ACTIVE_AF_FINISHED);
     }
 
@@ -965,7 +1506,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             return -1;
         }
 
-        int frequency = FmNative.activeAf();
+        int frequency = mTuner.activeAf();
         return frequency;
     }
 
@@ -977,7 +1518,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @return (true, success; false, failed)
      */
     public void setMuteAsync(boolean mute) {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SET_MUTE_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_SET_MUTE_FINISHED);
         final int bundleSize = 1;
         Bundle bundle = new Bundle(bundleSize);
         bundle.putBoolean(OPTION, mute);
@@ -998,7 +1539,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             Log.w(TAG, "setMute, FM is not powered up");
             return -1;
         }
-        int iRet = FmNative.setMute(mute);
+        int iRet = mTuner.setMute(mute);
         mIsMuted = mute;
         return iRet;
     }
@@ -1018,7 +1559,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @return (true, support; false, not support)
      */
     public boolean isRdsSupported() {
-        boolean isRdsSupported = (FmNative.isRdsSupport() == 1);
+        boolean isRdsSupported = (mTuner.isRdsSupport() == 1);
         return isRdsSupported;
     }
 
@@ -1092,7 +1633,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     public void switchAntennaAsync(int antenna) {
         final int bundleSize = 1;
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SWITCH_ANTENNA);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_SWITCH_ANTENNA);
 
         Bundle bundle = new Bundle(bundleSize);
         bundle.putInt(FmListener.SWITCH_ANTENNA_VALUE, antenna);
@@ -1110,7 +1651,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     private int switchAntenna(int antenna) {
         // if fm not powerup, switchAntenna will flag whether has earphone
-        int ret = FmNative.switchAntenna(antenna);
+        int ret = mTuner.switchAntenna(antenna);
         return ret;
     }
 
@@ -1118,7 +1659,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * Start recording
      */
     public void startRecordingAsync() {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_STARTRECORDING_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_STARTRECORDING_FINISHED);
         mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_STARTRECORDING_FINISHED);
     }
 
@@ -1161,7 +1702,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * stop recording
      */
     public void stopRecordingAsync() {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_STOPRECORDING_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_STOPRECORDING_FINISHED);
         mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_STOPRECORDING_FINISHED);
     }
 
@@ -1183,7 +1724,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @param newName New recording file name
      */
     public void saveRecordingAsync(String newName) {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_SAVERECORDING_FINISHED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_SAVERECORDING_FINISHED);
         final int bundleSize = 1;
         Bundle bundle = new Bundle(bundleSize);
         bundle.putString(RECODING_FILE_NAME, newName);
@@ -1231,7 +1772,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @param isRecording true, enter recoding mode; false, exit recording mode
      */
     public void setRecordingModeAsync(boolean isRecording) {
-        mFmServiceHandler.removeMessages(FmListener.MSGID_RECORD_MODE_CHANED);
+        mFmServiceHandler.removeCommands(FmListener.MSGID_RECORD_MODE_CHANED);
         final int bundleSize = 1;
         Bundle bundle = new Bundle(bundleSize);
         bundle.putBoolean(OPTION, isRecording);
@@ -1293,17 +1834,22 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     public void onCreate() {
         super.onCreate();
         mContext = getApplicationContext();
+        FmUtils.loadBandPlan(mContext);
+        mCurrentStation = FmStation.getCurrentStation(mContext);
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         mActivityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
         PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
         mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
         mWakeLock.setReferenceCounted(false);
+        mIsScreenOn = powerManager.isInteractive();
         sRecordingSdcard = FmUtils.getDefaultStoragePath();
 
         registerFmBroadcastReceiver();
         registerSdcardReceiver();
         registerAudioPortUpdateListener();
 
+        mTuner = createTuner();
+
         HandlerThread handlerThread = new HandlerThread("FmRadioServiceThread");
         handlerThread.start();
         mFmServiceHandler = new FmRadioServiceHandler(handlerThread.getLooper());
@@ -1313,7 +1859,21 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         setForceUse(mIsSpeakerUsed);
 
         setUpMediaSession();
-
+        mRdsPersister = new RdsPersister(mContext);
+
+        mUseDirectCapture = getResources().getBoolean(R.bool.config_useDirectBufferCapture);
+        mUseIncrementalScan = getResources().getBoolean(R.bool.config_useIncrementalScan);
+        // the simulated tuner has no audio port to patch from
+        mUseSpeakerAudioPatch = mSimulatedPcm == null
+                && getResources().getBoolean(R.bool.config_useSpeakerAudioPatch);
+        mVerifyCachedScan = getResources().getBoolean(R.bool.config_verifyCachedScanResults);
+        mNotificationUpdateWindowMs =
+                getResources().getInteger(R.integer.config_notificationUpdateWindowMs);
+        mScanResultCache = new ScanResultCache(mContext);
+        mRenderBuffer = new RenderBufferController(RECORD_BUF_SIZE, TRACK_MIN_BUF_SIZE,
+                FmUtils.getRenderBufferMode(mContext));
+        mPcmBufferPool = new PcmBufferPool(PCM_BUFFER_POOL_SIZE,
+                mRenderBuffer.getMaxChunkSize(), mUseDirectCapture);
         initAudioRecordSink();
         createRenderThread();
     }
@@ -1338,13 +1898,25 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     // Thread 2: onAudioPatchListUpdate() or startRender()
     private synchronized void initAudioRecordSink() {
         mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.RADIO_TUNER,
-                SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT, RECORD_BUF_SIZE);
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
-                SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT, RECORD_BUF_SIZE, AudioTrack.MODE_STREAM);
+                SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT, mRenderBuffer.getRecordBufferSize());
+        mAudioTrack = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setLegacyStreamType(AudioManager.STREAM_MUSIC)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setSampleRate(SAMPLE_RATE)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                        .setEncoding(AUDIO_FORMAT)
+                        .build())
+                .setBufferSizeInBytes(mRenderBuffer.getTrackCapacityBytes())
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setPerformanceMode(mRenderBuffer.getPerformanceMode())
+                .build();
+        mAudioTrack.setBufferSizeInFrames(mRenderBuffer.getTrackBufferFrames());
     }
 
-    private synchronized int createAudioPatch() {
-        Log.d(TAG, "createAudioPatch");
+    private synchronized int createAudioPatch(int sink) {
+        Log.d(TAG, "createAudioPatch, sink " + sink);
         int status = AudioManager.SUCCESS;
         if (mAudioPatch != null) {
             Log.d(TAG, "createAudioPatch, mAudioPatch is not null, return");
@@ -1358,11 +1930,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         for (AudioPort port : ports) {
             if (port instanceof AudioDevicePort) {
                 int type = ((AudioDevicePort) port).type();
-                String name = AudioSystem.getOutputDeviceName(type);
                 if (type == AudioSystem.DEVICE_IN_FM_TUNER) {
                     mAudioSource = (AudioDevicePort) port;
-                } else if (type == AudioSystem.DEVICE_OUT_WIRED_HEADSET ||
-                        type == AudioSystem.DEVICE_OUT_WIRED_HEADPHONE) {
+                } else if (sink == getPatchSinkOfDevice(type)) {
                     mAudioSink = (AudioDevicePort) port;
                 }
             }
@@ -1377,9 +1947,44 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     new AudioPortConfig[] {sinkConfig});
             mAudioPatch = audioPatchArray[0];
         }
+        if (status == AudioManager.SUCCESS && mAudioPatch == null) {
+            // no port to patch, do not leave the audio silent
+            status = AudioManager.ERROR;
+        }
+        if (status == AudioManager.SUCCESS) {
+            mPatchSink = sink;
+            // the route may change before rendering starts again, a sink
+            // prepared now would be built for the old device
+            mIsSinkPrepared = false;
+        } else if (sink == PATCH_SINK_SPEAKER) {
+            Log.w(TAG, "createAudioPatch, speaker patch rejected: " + status);
+            mIsSpeakerPatchRejected = true;
+        }
+        updateAudioPath();
         return status;
     }
 
+    /**
+     * Replace software rendering with a hardware patch, falling back to
+     * rendering if the patch cannot be created
+     *
+     * @param sink One of the PATCH_SINK_ constants
+     */
+    private void startAudioPatch(int sink) {
+        stopAudioTrack();
+        stopRender();
+        int status = createAudioPatch(sink);
+        if (status != AudioManager.SUCCESS) {
+            Log.d(TAG, "startAudioPatch: fallback as createAudioPatch failed");
+            startRender();
+        }
+    }
+
+    private void updateAudioPath() {
+        mAudioPathStats.setPath(mAudioPatch != null ? AudioPathStats.PATH_PATCH
+                : mIsRender ? AudioPathStats.PATH_RENDER : AudioPathStats.PATH_NONE);
+    }
+
     private FmOnAudioPortUpdateListener mAudioPortUpdateListener = null;
 
     private class FmOnAudioPortUpdateListener implements OnAudioPortUpdateListener {
@@ -1419,7 +2024,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     startRender();
                     return;
                 }
-                if (isPatchMixerToEarphone(patches)) {
+                if (getPatchSink(patches) == mPatchSink) {
                     stopRender();
                 } else {
                     releaseAudioPatch();
@@ -1428,15 +2033,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             } else if (mIsRender) {
                 ArrayList<AudioPatch> patches = new ArrayList<AudioPatch>();
                 mAudioManager.listAudioPatches(patches);
-                if (isPatchMixerToEarphone(patches)) {
-                    int status;
-                    stopAudioTrack();
-                    stopRender();
-                    status = createAudioPatch();
-                    if (status != AudioManager.SUCCESS){
-                       Log.d(TAG, "onAudioPatchListUpdate: fallback as createAudioPatch failed");
-                       startRender();
-                    }
+                int sink = getPatchSink(patches);
+                if (sink != PATCH_SINK_NONE) {
+                    startAudioPatch(sink);
                 }
             }
         }
@@ -1456,8 +2055,10 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             mAudioManager.releaseAudioPatch(mAudioPatch);
             mAudioPatch = null;
         }
+        mPatchSink = PATCH_SINK_NONE;
         mAudioSource = null;
         mAudioSink = null;
+        updateAudioPath();
     }
 
     private void registerFmBroadcastReceiver() {
@@ -1486,6 +2087,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         if (isRdsSupported()) {
             stopRdsThread();
         }
+        mRdsPersister.flushAndQuit();
+        mMainHandler.removeCallbacks(mNotificationUpdater);
+        mMainHandler.removeCallbacks(mStateDispatcher);
         unregisterFmBroadcastReceiver();
         unregisterSdcardListener();
         abandonAudioFocus();
@@ -1522,8 +2126,8 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             stopScan();
         }
 
-        mFmServiceHandler.removeCallbacksAndMessages(null);
-        mFmServiceHandler.removeMessages(FmListener.MSGID_FM_EXIT);
+        mFmServiceHandler.removeAllCommands();
+        mFmServiceHandler.removeCommands(FmListener.MSGID_FM_EXIT);
         mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_FM_EXIT);
     }
 
@@ -1543,13 +2147,19 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         if (intent != null) {
             String action = intent.getAction();
             if (FM_SEEK_PREVIOUS.equals(action)) {
-                seekStationAsync(FmUtils.computeFrequency(mCurrentStation), false);
+                seekStationAsync(mCurrentStation, false);
             } else if (FM_SEEK_NEXT.equals(action)) {
-                seekStationAsync(FmUtils.computeFrequency(mCurrentStation), true);
+                seekStationAsync(mCurrentStation, true);
             } else if (FM_TURN_ON.equals(action)) {
-                powerUpAsync(FmUtils.computeFrequency(mCurrentStation));
+                powerUpAsync(mCurrentStation);
             } else if (FM_TURN_OFF.equals(action)) {
                 powerDownAsync();
+            } else if (FM_NOTIFICATION_DELETED.equals(action)) {
+                // swiped away, post it again on the next update
+                synchronized (mNotificationLock) {
+                    mIsPlayingNotificationShown = false;
+                }
+                updatePowerPolicy();
             }
         }
         return START_NOT_STICKY;
@@ -1563,115 +2173,165 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * Start RDS thread to update RDS information
      */
     private void startRdsThread() {
-        mIsRdsThreadExit = false;
-        if (null != mRdsThread) {
+        if (null != mRdsReader) {
+            mRdsReader.onTuned();
             return;
         }
-        mRdsThread = new Thread() {
-            public void run() {
-                while (true) {
-                    if (mIsRdsThreadExit) {
-                        break;
-                    }
+        mRdsReader = new RdsReader(mTuner, mRdsCallback);
+        mRdsReader.setActive(isWatched());
+        mRdsReader.onTuned();
+        mRdsReader.start();
+    }
 
-                    int iRdsEvents = FmNative.readRds();
-                    if (iRdsEvents != 0) {
-                        Log.d(TAG, "startRdsThread, is rds events: " + iRdsEvents);
+    private final RdsReader.Callback mRdsCallback = new RdsReader.Callback() {
+        @Override
+        public boolean onRdsEvents(int iRdsEvents) {
+            boolean changed = false;
+            Log.d(TAG, "startRdsThread, is rds events: " + iRdsEvents);
+
+            if (RDS_EVENT_PROGRAMNAME == (RDS_EVENT_PROGRAMNAME & iRdsEvents)) {
+                byte[] bytePS = mTuner.getPs();
+                if (null != bytePS) {
+                    String ps = mPsDecoder.decode(mCurrentStation, bytePS);
+                    // the decoder returns the same instance for unchanged bytes
+                    if (ps != mLastDecodedPs && !ps.equals(mLastDecodedPs)) {
+                        mLastDecodedPs = ps;
+                        changed = true;
+                        schedulePlayingNotificationUpdate();
                     }
-
-                    if (RDS_EVENT_PROGRAMNAME == (RDS_EVENT_PROGRAMNAME & iRdsEvents)) {
-                        byte[] bytePS = FmNative.getPs();
-                        if (null != bytePS) {
-                            String ps = new String(bytePS).trim();
-                            if (!mPsString.equals(ps)) {
-                                updatePlayingNotification();
-                            }
-                            ContentValues values = null;
-                            if (FmStation.isStationExist(mContext, mCurrentStation)) {
-                                values = new ContentValues(1);
-                                values.put(Station.PROGRAM_SERVICE, ps);
-                                FmStation.updateStationToDb(mContext, mCurrentStation, values);
-                            } else {
-                                values = new ContentValues(2);
-                                values.put(Station.FREQUENCY, mCurrentStation);
-                                values.put(Station.PROGRAM_SERVICE, ps);
-                                FmStation.insertStationToDb(mContext, values);
-                            }
-                            if (isActivityForeground()) {
-                                setPs(ps);
-                            }
-                        }
+                    mRdsPersister.setProgramService(mCurrentStation, ps);
+                    if (isActivityForeground()) {
+                        setPs(ps);
                     }
+                }
+            }
 
-                    if (RDS_EVENT_LAST_RADIOTEXT == (RDS_EVENT_LAST_RADIOTEXT & iRdsEvents)) {
-                        byte[] byteLRText = FmNative.getLrText();
-                        if (null != byteLRText) {
-                            String rds = new String(byteLRText).trim();
-                            if (!mRtTextString.equals(rds)) {
-                                updatePlayingNotification();
-                            }
-                            if (isActivityForeground()) {
-                                setLRText(rds);
-                            }
-                            ContentValues values = null;
-                            if (FmStation.isStationExist(mContext, mCurrentStation)) {
-                                values = new ContentValues(1);
-                                values.put(Station.RADIO_TEXT, rds);
-                                FmStation.updateStationToDb(mContext, mCurrentStation, values);
-                            } else {
-                                values = new ContentValues(2);
-                                values.put(Station.FREQUENCY, mCurrentStation);
-                                values.put(Station.RADIO_TEXT, rds);
-                                FmStation.insertStationToDb(mContext, values);
-                            }
-                        }
+            if (RDS_EVENT_LAST_RADIOTEXT == (RDS_EVENT_LAST_RADIOTEXT & iRdsEvents)) {
+                byte[] byteLRText = mTuner.getLrText();
+                if (null != byteLRText) {
+                    String rds = mRtDecoder.decode(mCurrentStation, byteLRText);
+                    if (rds != mLastDecodedRt && !rds.equals(mLastDecodedRt)) {
+                        mLastDecodedRt = rds;
+                        changed = true;
+                        schedulePlayingNotificationUpdate();
                     }
+                    if (isActivityForeground()) {
+                        setLRText(rds);
+                    }
+                    mRdsPersister.setRadioText(mCurrentStation, rds);
+                }
+            }
 
-                    if (RDS_EVENT_AF == (RDS_EVENT_AF & iRdsEvents)) {
-                        /*
-                         * add for rds AF
-                         */
-                        if (mIsScanning || mIsSeeking) {
-                            Log.d(TAG, "startRdsThread, seek or scan going, no need to tune here");
-                        } else if (mPowerStatus == POWER_DOWN) {
-                            Log.d(TAG, "startRdsThread, fm is power down, do nothing.");
-                        } else {
-                            int iFreq = FmNative.activeAf();
-                            if (FmUtils.isValidStation(iFreq)) {
-                                // if the new frequency is not equal to current
-                                // frequency.
-                                if (mCurrentStation != iFreq) {
-                                    if (!mIsScanning && !mIsSeeking) {
-                                        Log.d(TAG, "startRdsThread, seek or scan not going,"
-                                                + "need to tune here");
-                                        tuneStationAsync(FmUtils.computeFrequency(iFreq));
-                                    }
-                                }
+            if (RDS_EVENT_AF == (RDS_EVENT_AF & iRdsEvents)) {
+                /*
+                 * add for rds AF
+                 */
+                if (mIsScanning || mIsSeeking) {
+                    Log.d(TAG, "startRdsThread, seek or scan going, no need to tune here");
+                } else if (mPowerStatus == POWER_DOWN) {
+                    Log.d(TAG, "startRdsThread, fm is power down, do nothing.");
+                } else {
+                    int iFreq = mTuner.activeAf();
+                    if (FmUtils.isValidStation(iFreq)) {
+                        // if the new frequency is not equal to current
+                        // frequency.
+                        if (mCurrentStation != iFreq) {
+                            if (!mIsScanning && !mIsSeeking) {
+                                Log.d(TAG, "startRdsThread, seek or scan not going,"
+                                        + "need to tune here");
+                                tuneStationAsync(iFreq);
                             }
                         }
                     }
-                    // Do not handle other events.
-                    // Sleep 500ms to reduce inquiry frequency
-                    try {
-                        final int hundredMillisecond = 500;
-                        Thread.sleep(hundredMillisecond);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
                 }
             }
-        };
-        mRdsThread.start();
-    }
+            // Do not handle other events.
+            RdsReader reader = mRdsReader;
+            if (changed && reader != null) {
+                reader.onEventDelivered();
+            }
+            return changed;
+        }
+    };
 
     /**
      * Stop RDS thread to stop listen station RDS change
      */
     private void stopRdsThread() {
-        if (null != mRdsThread) {
+        if (null != mRdsReader) {
             // Must call closedev after stopRDSThread.
-            mIsRdsThreadExit = true;
-            mRdsThread = null;
+            mRdsReader.quit();
+            mRdsReader = null;
+        }
+    }
+
+    /**
+     * Whether somebody watches the radio: the screen is on and one of our
+     * activities or the playing notification, unless the user dismissed
+     * it, is there to show it
+     */
+    private boolean isWatched() {
+        return mIsScreenOn && (isActivityForeground() || mIsPlayingNotificationShown);
+    }
+
+    /**
+     * Apply the power policy after the screen, an activity or the
+     * notification changed. While nobody watches, the chip is in low power
+     * mode, RDS is off and the UI is not updated. Coming back restores RDS
+     * and catches the UI up at the front of the main queue.
+     */
+    private void updatePowerPolicy() {
+        synchronized (mPowerPolicyLock) {
+            boolean watched = isWatched();
+            RdsReader reader = mRdsReader;
+            if (reader != null) {
+                reader.setActive(watched);
+            }
+            // the chip is switched on the service handler, in order with
+            // tune, seek and scan, and low power only once nobody watched
+            // for a while
+            mFmServiceHandler.removeCommands(FmListener.MSGID_POWER_POLICY_CHANGED);
+            if (watched && mIsLowPower) {
+                mFmServiceHandler.sendEmptyMessage(FmListener.MSGID_POWER_POLICY_CHANGED);
+            } else if (!watched && !mIsLowPower) {
+                mFmServiceHandler.sendEmptyMessageDelayed(
+                        FmListener.MSGID_POWER_POLICY_CHANGED, LOW_POWER_DELAY_MS);
+            }
+            if (watched == mIsWatched) {
+                return;
+            }
+            Log.d(TAG, "updatePowerPolicy, watched " + watched);
+            mIsWatched = watched;
+            mIsUiDispatchPaused = !watched;
+            if (watched) {
+                mMainHandler.removeCallbacks(mStateDispatcher);
+                mMainHandler.postAtFrontOfQueue(mStateDispatcher);
+                if (mIsNotificationUpdateDeferred) {
+                    mIsNotificationUpdateDeferred = false;
+                    mMainHandler.removeCallbacks(mNotificationUpdater);
+                    mMainHandler.postAtFrontOfQueue(mNotificationUpdater);
+                }
+            }
+        }
+    }
+
+    /**
+     * Switch the chip to the power mode of the policy, on the service
+     * handler thread
+     */
+    private void applyPowerMode() {
+        synchronized (mPowerPolicyLock) {
+            boolean watched = isWatched();
+            if (watched && mIsLowPower) {
+                mIsLowPower = false;
+                mTuner.setNormalPowerMode();
+                setRds(true);
+            } else if (!watched && !mIsLowPower && mPowerStatus == POWER_UP) {
+                mIsLowPower = true;
+                sLowPowerEntries.increment();
+                setRds(false);
+                mTuner.setLowPowerMode();
+            }
         }
     }
 
@@ -1683,10 +2343,13 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private void setPs(String ps) {
         if (0 != mPsString.compareTo(ps)) {
             mPsString = ps;
-            Bundle bundle = new Bundle(3);
-            bundle.putInt(FmListener.CALLBACK_FLAG, FmListener.LISTEN_PS_CHANGED);
-            bundle.putString(FmListener.KEY_PS_INFO, mPsString);
-            notifyActivityStateChanged(bundle);
+            synchronized (mPendingStateLock) {
+                if (mPendingPs != null) {
+                    sCoalescedStateEvents.increment();
+                }
+                mPendingPs = ps;
+            }
+            scheduleStateDispatch();
         } // else New PS is the same as current
     }
 
@@ -1698,11 +2361,54 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private void setLRText(String lrtText) {
         if (0 != mRtTextString.compareTo(lrtText)) {
             mRtTextString = lrtText;
-            Bundle bundle = new Bundle(3);
+            synchronized (mPendingStateLock) {
+                if (mPendingRt != null) {
+                    sCoalescedStateEvents.increment();
+                }
+                mPendingRt = lrtText;
+            }
+            scheduleStateDispatch();
+        } // else New RT is the same as current
+    }
+
+    private void scheduleStateDispatch() {
+        if (mIsUiDispatchPaused) {
+            // kept pending until somebody watches again
+            return;
+        }
+        if (!mMainHandler.hasCallbacks(mStateDispatcher)) {
+            mMainHandler.post(mStateDispatcher);
+        }
+    }
+
+    /**
+     * Send the latest PS and RT to the listeners, outside of
+     * mPendingStateLock so the RDS thread never waits for a listener
+     */
+    private void dispatchPendingState() {
+        String ps;
+        String rt;
+        synchronized (mPendingStateLock) {
+            ps = mPendingPs;
+            rt = mPendingRt;
+            mPendingPs = null;
+            mPendingRt = null;
+        }
+        if (mRecords.isEmpty()) {
+            return;
+        }
+        if (ps != null) {
+            Bundle bundle = new Bundle(2);
+            bundle.putInt(FmListener.CALLBACK_FLAG, FmListener.LISTEN_PS_CHANGED);
+            bundle.putString(FmListener.KEY_PS_INFO, ps);
+            notifyActivityStateChanged(bundle);
+        }
+        if (rt != null) {
+            Bundle bundle = new Bundle(2);
             bundle.putInt(FmListener.CALLBACK_FLAG, FmListener.LISTEN_RT_CHANGED);
-            bundle.putString(FmListener.KEY_RT_INFO, mRtTextString);
+            bundle.putString(FmListener.KEY_RT_INFO, rt);
             notifyActivityStateChanged(bundle);
-        } // else New RT is the same as current
+        }
     }
 
     /**
@@ -1730,15 +2436,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         ArrayList<AudioPatch> patches = new ArrayList<AudioPatch>();
         mAudioManager.listAudioPatches(patches);
         if (mAudioPatch == null) {
-            if (isPatchMixerToEarphone(patches)) {
-                int status;
-                stopAudioTrack();
-                stopRender();
-                status = createAudioPatch();
-                if (status != AudioManager.SUCCESS){
-                   Log.d(TAG, "startPatchOrRender: fallback as createAudioPatch failed");
-                   startRender();
-                }
+            int sink = getPatchSink(patches);
+            if (sink != PATCH_SINK_NONE) {
+                startAudioPatch(sink);
             } else {
                 if (!isRendering()) {
                     startRender();
@@ -1747,43 +2447,62 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         }
     }
 
-    // Make sure patches count will not be 0
-    private boolean isPatchMixerToEarphone(ArrayList<AudioPatch> patches) {
-        int deviceCount = 0;
-        int deviceEarphoneCount = 0;
-
+    /**
+     * Find the device a hardware patch should play to: the single device
+     * the mixer plays to, if a patch can reach it
+     *
+     * @param patches The current audio patches, make sure the count is not 0
+     *
+     * @return One of the PATCH_SINK_ constants
+     */
+    private int getPatchSink(ArrayList<AudioPatch> patches) {
         if (getRecorderState() == FmRecorder.STATE_RECORDING) {
             // force software rendering when recording
-            return false;
+            return PATCH_SINK_NONE;
         }
 
-        if (mContext.getResources().getBoolean(R.bool.config_useSoftwareRenderingForAudio)) {
-            Log.w(TAG, "FIXME: forcing isPatchMixerToEarphone to return false. "
+        boolean isEarphonePatchAllowed = !mContext.getResources()
+                .getBoolean(R.bool.config_useSoftwareRenderingForAudio);
+        boolean isSpeakerPatchAllowed = mUseSpeakerAudioPatch && !mIsSpeakerPatchRejected;
+        if (!isEarphonePatchAllowed && !isSpeakerPatchAllowed) {
+            Log.w(TAG, "FIXME: forcing getPatchSink to return none. "
                     + "Software rendering will be used.");
-            return false;
-        } else {
-            for (AudioPatch patch : patches) {
-                AudioPortConfig[] sources = patch.sources();
-                AudioPortConfig[] sinks = patch.sinks();
-                AudioPortConfig sourceConfig = sources[0];
-                AudioPortConfig sinkConfig = sinks[0];
-                AudioPort sourcePort = sourceConfig.port();
-                AudioPort sinkPort = sinkConfig.port();
-                Log.d(TAG, "isPatchMixerToEarphone " + sourcePort + " ====> " + sinkPort);
-                if (sourcePort instanceof AudioMixPort && sinkPort instanceof AudioDevicePort) {
-                    deviceCount++;
-                    int type = ((AudioDevicePort) sinkPort).type();
-                    if (type == AudioSystem.DEVICE_OUT_WIRED_HEADSET ||
-                            type == AudioSystem.DEVICE_OUT_WIRED_HEADPHONE) {
-                        deviceEarphoneCount++;
-                    }
-                }
-            }
-            if (deviceEarphoneCount == 1 && deviceCount == deviceEarphoneCount) {
-                return true;
+            return PATCH_SINK_NONE;
+        }
+
+        int deviceCount = 0;
+        int sink = PATCH_SINK_NONE;
+        for (AudioPatch patch : patches) {
+            AudioPortConfig[] sources = patch.sources();
+            AudioPortConfig[] sinks = patch.sinks();
+            AudioPortConfig sourceConfig = sources[0];
+            AudioPortConfig sinkConfig = sinks[0];
+            AudioPort sourcePort = sourceConfig.port();
+            AudioPort sinkPort = sinkConfig.port();
+            Log.d(TAG, "getPatchSink " + sourcePort + " ====> " + sinkPort);
+            if (sourcePort instanceof AudioMixPort && sinkPort instanceof AudioDevicePort) {
+                deviceCount++;
+                sink = getPatchSinkOfDevice(((AudioDevicePort) sinkPort).type());
             }
         }
-        return false;
+        if (deviceCount != 1) {
+            return PATCH_SINK_NONE;
+        }
+        if ((sink == PATCH_SINK_EARPHONE && isEarphonePatchAllowed)
+                || (sink == PATCH_SINK_SPEAKER && isSpeakerPatchAllowed)) {
+            return sink;
+        }
+        return PATCH_SINK_NONE;
+    }
+
+    private static int getPatchSinkOfDevice(int type) {
+        if (type == AudioSystem.DEVICE_OUT_WIRED_HEADSET ||
+                type == AudioSystem.DEVICE_OUT_WIRED_HEADPHONE) {
+            return PATCH_SINK_EARPHONE;
+        } else if (type == AudioSystem.DEVICE_OUT_SPEAKER) {
+            return PATCH_SINK_SPEAKER;
+        }
+        return PATCH_SINK_NONE;
     }
 
     // Check whether the patch (mixer -> device) is removed by native.
@@ -1815,116 +2534,88 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             return;
         }
         synchronized (mNotificationLock) {
+            // this update covers any pending coalesced one
+            mMainHandler.removeCallbacks(mNotificationUpdater);
+            mLastNotificationUpdateTime = SystemClock.uptimeMillis();
+
             String stationName = "";
             String radioText = "";
-            ContentResolver resolver = mContext.getContentResolver();
-            Cursor cursor = null;
-            try {
-                cursor = resolver.query(
-                        Station.CONTENT_URI,
-                        FmStation.COLUMNS,
-                        Station.FREQUENCY + "=?",
-                        new String[] { String.valueOf(mCurrentStation) },
-                        null);
-                if (cursor != null && cursor.moveToFirst()) {
-                    // If the station name is not exist, show program service(PS) instead
-                    stationName = cursor.getString(cursor.getColumnIndex(Station.STATION_NAME));
-                    if (TextUtils.isEmpty(stationName)) {
-                        stationName = cursor.getString(cursor.getColumnIndex(Station.PROGRAM_SERVICE));
-                    }
-                    radioText = cursor.getString(cursor.getColumnIndex(Station.RADIO_TEXT));
-
-                } else {
-                    Log.d(TAG, "showPlayingNotification, cursor is null");
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
+            boolean renamed = false;
+            StationCache.StationInfo info =
+                    StationCache.getInstance(mContext).getStation(mCurrentStation);
+            if (info != null) {
+                // If the station name is not exist, show program service(PS) instead
+                renamed = !TextUtils.isEmpty(info.mStationName);
+                stationName = info.getDisplayName();
+                radioText = info.mRadioText;
+            } else {
+                Log.d(TAG, "showPlayingNotification, station is not in database");
             }
-
-            Intent aIntent = new Intent(Intent.ACTION_MAIN);
-            aIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-            aIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            aIntent.setClassName(getPackageName(), mTargetClassName);
-            PendingIntent pAIntent = PendingIntent.getActivity(mContext, 0, aIntent, 0);
-
-            if (mNotificationManager == null) {
-                mNotificationManager = (NotificationManager)
-                    mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+            // The latest RDS data may not be written to the database yet
+            String ps = mRdsPersister.getProgramService(mCurrentStation);
+            if (!renamed && ps != null) {
+                stationName = ps;
             }
+            String rt = mRdsPersister.getRadioText(mCurrentStation);
+            if (rt != null) {
+                radioText = rt;
+            }
+            // Show FM Radio if empty
+            if (TextUtils.isEmpty(stationName)) {
+                stationName = getString(R.string.app_name);
+            }
+            boolean isPlaying = isPlaying();
 
-            if (mNotificationChannel == null) {
-                mNotificationChannel =
-                    new NotificationChannel(NOTIFICATION_CHANNEL,
-                            mContext.getString(R.string.app_name),
-                            NotificationManager.IMPORTANCE_LOW);
-
-                mNotificationManager.createNotificationChannel(mNotificationChannel);
+            boolean isStateChanged = !mIsPlayingNotificationShown || isPlaying != mShownIsPlaying;
+            boolean isMetadataChanged = !mIsPlayingNotificationShown
+                    || !TextUtils.equals(stationName, mShownStationName)
+                    || !TextUtils.equals(radioText, mShownRadioText);
+            boolean isIntentChanged = mContentIntent == null;
+            if (!isStateChanged && !isMetadataChanged && !isIntentChanged
+                    && mCurrentStation == mShownStation) {
+                sNotificationsUnchanged.increment();
+                return;
             }
 
-            boolean isPlaying = isPlaying();
-            int playButtonResId = isPlaying
-                    ? R.drawable.btn_fm_rec_stop_enabled :
-                    R.drawable.btn_fm_rec_playback_enabled;
-            int playButtonTitleResId = isPlaying
-                    ? R.string.accessibility_pause :
-                    R.string.accessibility_play;
-
-            long playBackStateActions = PlaybackState.ACTION_PLAY |
-                    PlaybackState.ACTION_PLAY_PAUSE |
-                    PlaybackState.ACTION_PAUSE |
-                    PlaybackState.ACTION_SKIP_TO_NEXT |
-                    PlaybackState.ACTION_SKIP_TO_PREVIOUS |
-                    PlaybackState.ACTION_STOP;
-
-            mSession.setPlaybackState(new PlaybackState.Builder()
-                    .setActions(playBackStateActions)
-                    .setState((isPlaying ?
-                            PlaybackState.STATE_PLAYING :
-                            PlaybackState.STATE_PAUSED), 0, 1.0f).build());
+            ensureNotificationChannel();
+            ensureNotificationActions();
+
+            if (isStateChanged) {
+                long playBackStateActions = PlaybackState.ACTION_PLAY |
+                        PlaybackState.ACTION_PLAY_PAUSE |
+                        PlaybackState.ACTION_PAUSE |
+                        PlaybackState.ACTION_SKIP_TO_NEXT |
+                        PlaybackState.ACTION_SKIP_TO_PREVIOUS |
+                        PlaybackState.ACTION_STOP;
+
+                mSession.setPlaybackState(new PlaybackState.Builder()
+                        .setActions(playBackStateActions)
+                        .setState((isPlaying ?
+                                PlaybackState.STATE_PLAYING :
+                                PlaybackState.STATE_PAUSED), 0, 1.0f).build());
+            }
+            if (isMetadataChanged) {
+                mSession.setMetadata(new MediaMetadata.Builder()
+                        .putString(MediaMetadata.METADATA_KEY_ARTIST, radioText)
+                        .putString(MediaMetadata.METADATA_KEY_TITLE, stationName)
+                        .build());
+            }
 
             Notification.Builder notificationBuilder;
             notificationBuilder = new Notification.Builder(mContext, NOTIFICATION_CHANNEL);
             notificationBuilder.setSmallIcon(R.drawable.ic_notification);
             notificationBuilder.setShowWhen(false);
             notificationBuilder.setAutoCancel(true);
+            notificationBuilder.addAction(mPrevAction);
+            notificationBuilder.addAction(isPlaying ? mPauseAction : mPlayAction);
+            notificationBuilder.addAction(mNextAction);
+            notificationBuilder.setContentIntent(mContentIntent);
+            notificationBuilder.setDeleteIntent(mDeleteIntent);
 
-            Intent intent = new Intent(FM_SEEK_PREVIOUS);
-            intent.setClass(mContext, FmService.class);
-            PendingIntent pIntent = PendingIntent.getService(mContext, 0, intent, 0);
-            notificationBuilder.addAction(R.drawable.btn_fm_prevstation,
-                    getString(R.string.accessibility_prev), pIntent);
-            intent = new Intent(isPlaying ? FM_TURN_OFF : FM_TURN_ON);
-            intent.setClass(mContext, FmService.class);
-            pIntent = PendingIntent.getService(mContext, 0, intent, 0);
-            notificationBuilder.addAction(playButtonResId,
-                    getString(playButtonTitleResId), pIntent);
-            intent = new Intent(FM_SEEK_NEXT);
-            intent.setClass(mContext, FmService.class);
-            pIntent = PendingIntent.getService(mContext, 0, intent, 0);
-            notificationBuilder.addAction(R.drawable.btn_fm_nextstation,
-                    getString(R.string.accessibility_next) , pIntent);
-            notificationBuilder.setContentIntent(pAIntent);
-
-            final String freq = FmUtils.formatStation(mCurrentStation);
-            if (!freq.equals(mCachedArtworkKey)) {
-                mCachedArtwork = FmUtils.createNotificationArtwork(mContext, freq);
-                mCachedArtworkKey = freq;
-            }
             notificationBuilder.setColor(mContext.getResources()
                     .getColor(R.color.notification_icon_bg_color));
-            notificationBuilder.setLargeIcon(mCachedArtwork);
-
-            // Show FM Radio if empty
-            if (TextUtils.isEmpty(stationName)) {
-                stationName = getString(R.string.app_name);
-            }
-
-            mSession.setMetadata(new MediaMetadata.Builder()
-                    .putString(MediaMetadata.METADATA_KEY_ARTIST, radioText)
-                    .putString(MediaMetadata.METADATA_KEY_TITLE, stationName)
-                    .build());
+            notificationBuilder.setLargeIcon(ArtworkCache.getInstance(mContext)
+                    .get(mCurrentStation, ArtworkCache.SIZE_ARTWORK));
 
             // Apply the media style template
             notificationBuilder.setStyle(
@@ -1939,6 +2630,90 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             Notification n = notificationBuilder.build();
             n.flags &= ~Notification.FLAG_NO_CLEAR;
             startForeground(NOTIFICATION_ID, n);
+            sNotificationsPosted.increment();
+
+            mIsPlayingNotificationShown = true;
+            mShownStation = mCurrentStation;
+            mShownStationName = stationName;
+            mShownRadioText = radioText;
+            mShownIsPlaying = isPlaying;
+        }
+        updatePowerPolicy();
+    }
+
+    /**
+     * Update the playing notification after RDS data changed, at most once
+     * per update window
+     */
+    private void schedulePlayingNotificationUpdate() {
+        if (mIsUiDispatchPaused) {
+            mIsNotificationUpdateDeferred = true;
+            return;
+        }
+        if (mMainHandler.hasCallbacks(mNotificationUpdater)) {
+            sNotificationsCoalesced.increment();
+            return;
+        }
+        long delay = mLastNotificationUpdateTime + mNotificationUpdateWindowMs
+                - SystemClock.uptimeMillis();
+        mMainHandler.postDelayed(mNotificationUpdater, Math.max(0, delay));
+    }
+
+    /**
+     * Build the notification intents and actions once, and the content
+     * intent again after the target activity changed, must hold
+     * mNotificationLock
+     */
+    private void ensureNotificationActions() {
+        if (mContentIntent == null) {
+            Intent aIntent = new Intent(Intent.ACTION_MAIN);
+            aIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+            aIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            aIntent.setClassName(getPackageName(), mTargetClassName);
+            mContentIntent = PendingIntent.getActivity(mContext, 0, aIntent, 0);
+        }
+        if (mPrevAction != null) {
+            return;
+        }
+        Intent deleteIntent = new Intent(FM_NOTIFICATION_DELETED);
+        deleteIntent.setClass(mContext, FmService.class);
+        mDeleteIntent = PendingIntent.getService(mContext, 0, deleteIntent, 0);
+
+        mPrevAction = buildNotificationAction(FM_SEEK_PREVIOUS,
+                R.drawable.btn_fm_prevstation, R.string.accessibility_prev);
+        mPauseAction = buildNotificationAction(FM_TURN_OFF,
+                R.drawable.btn_fm_rec_stop_enabled, R.string.accessibility_pause);
+        mPlayAction = buildNotificationAction(FM_TURN_ON,
+                R.drawable.btn_fm_rec_playback_enabled, R.string.accessibility_play);
+        mNextAction = buildNotificationAction(FM_SEEK_NEXT,
+                R.drawable.btn_fm_nextstation, R.string.accessibility_next);
+    }
+
+    private Notification.Action buildNotificationAction(String action, int iconResId,
+            int titleResId) {
+        Intent intent = new Intent(action);
+        intent.setClass(mContext, FmService.class);
+        PendingIntent pIntent = PendingIntent.getService(mContext, 0, intent, 0);
+        return new Notification.Action.Builder(Icon.createWithResource(mContext, iconResId),
+                getString(titleResId), pIntent).build();
+    }
+
+    /**
+     * Create the notification channel once, must hold mNotificationLock
+     */
+    private void ensureNotificationChannel() {
+        if (mNotificationManager == null) {
+            mNotificationManager = (NotificationManager)
+                mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        }
+
+        if (mNotificationChannel == null) {
+            mNotificationChannel =
+                new NotificationChannel(NOTIFICATION_CHANNEL,
+                        mContext.getString(R.string.app_name),
+                        NotificationManager.IMPORTANCE_LOW);
+
+            mNotificationManager.createNotificationChannel(mNotificationChannel);
         }
     }
 
@@ -1957,17 +2732,17 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
 
             @Override
             public void onPlay() {
-                powerUpAsync(FmUtils.computeFrequency(mCurrentStation));
+                powerUpAsync(mCurrentStation);
             }
 
             @Override
             public void onSkipToNext() {
-                seekStationAsync(FmUtils.computeFrequency(mCurrentStation), true);
+                seekStationAsync(mCurrentStation, true);
             }
 
             @Override
             public void onSkipToPrevious() {
-                seekStationAsync(FmUtils.computeFrequency(mCurrentStation), false);
+                seekStationAsync(mCurrentStation, false);
             }
 
             @Override
@@ -2006,14 +2781,22 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * Show notification
      */
     public void showRecordingNotification(Notification notification) {
+        synchronized (mNotificationLock) {
+            mIsPlayingNotificationShown = false;
+        }
         startForeground(NOTIFICATION_ID, notification);
+        updatePowerPolicy();
     }
 
     /**
      * Remove notification
      */
     public void removeNotification() {
+        synchronized (mNotificationLock) {
+            mIsPlayingNotificationShown = false;
+        }
         stopForeground(true);
+        updatePowerPolicy();
     }
 
     /**
@@ -2118,7 +2901,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                 resumeFmAudio();
                 setMute(false);
             } else {
-                powerUpAsync(FmUtils.computeFrequency(mCurrentStation));
+                powerUpAsync(mCurrentStation);
             }
         } else {
             // without headset need show plug in earphone tips
@@ -2256,9 +3039,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     int fmState = mFmRecorder.getState();
                     // only handle recorder state, not handle playback state
                     if (fmState == FmRecorder.STATE_RECORDING) {
-                        mFmServiceHandler.removeMessages(
+                        mFmServiceHandler.removeCommands(
                                 FmListener.MSGID_STARTRECORDING_FINISHED);
-                        mFmServiceHandler.removeMessages(
+                        mFmServiceHandler.removeCommands(
                                 FmListener.MSGID_STOPRECORDING_FINISHED);
                         stopRecording();
                     }
@@ -2278,9 +3061,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                 if (mFmRecorder != null) {
                     int fmState = mFmRecorder.getState();
                     if (fmState == FmRecorder.STATE_RECORDING) {
-                        mFmServiceHandler.removeMessages(
+                        mFmServiceHandler.removeCommands(
                                 FmListener.MSGID_STARTRECORDING_FINISHED);
-                        mFmServiceHandler.removeMessages(
+                        mFmServiceHandler.removeCommands(
                                 FmListener.MSGID_STOPRECORDING_FINISHED);
                         stopRecording();
                     }
@@ -2296,11 +3079,11 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                 }
                 if ((mPowerStatus != POWER_UP) && mPausedByTransientLossOfFocus) {
                     final int bundleSize = 1;
-                    mFmServiceHandler.removeMessages(FmListener.MSGID_POWERUP_FINISHED);
-                    mFmServiceHandler.removeMessages(FmListener.MSGID_POWERDOWN_FINISHED);
+                    mFmServiceHandler.removeCommands(FmListener.MSGID_POWERUP_FINISHED);
+                    mFmServiceHandler.removeCommands(FmListener.MSGID_POWERDOWN_FINISHED);
                     Bundle bundle = new Bundle(bundleSize);
-                    bundle.putFloat(FM_FREQUENCY, FmUtils.computeFrequency(mCurrentStation));
-                    handlePowerUp(bundle);
+                    bundle.putInt(FM_STATION, mCurrentStation);
+                    handlePowerUp(bundle, SystemClock.uptimeMillis());
                 }
                 setMute(false);
                 break;
@@ -2326,8 +3109,13 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * FM Radio listener record
      */
     private static class Record {
-        int mHashCode; // hash code
-        FmListener mCallback; // call back
+        final int mHashCode; // hash code
+        final FmListener mCallback; // call back
+
+        Record(int hashCode, FmListener callback) {
+            mHashCode = hashCode;
+            mCallback = callback;
+        }
     }
 
     /**
@@ -2337,22 +3125,17 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @param callback FM Radio listener
      */
     public void registerFmRadioListener(FmListener callback) {
+        // only writers lock, dispatch reads the list without locking
         synchronized (mRecords) {
             // register callback in AudioProfileService, if the callback is
             // exist, just replace the event.
-            Record record = null;
             int hashCode = callback.hashCode();
-            final int n = mRecords.size();
-            for (int i = 0; i < n; i++) {
-                record = mRecords.get(i);
+            for (Record record : mRecords) {
                 if (hashCode == record.mHashCode) {
                     return;
                 }
             }
-            record = new Record();
-            record.mHashCode = hashCode;
-            record.mCallback = callback;
-            mRecords.add(record);
+            mRecords.add(new Record(hashCode, callback));
         }
     }
 
@@ -2362,22 +3145,13 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @param bundle The message to activity
      */
     private void notifyActivityStateChanged(Bundle bundle) {
-        if (!mRecords.isEmpty()) {
-            synchronized (mRecords) {
-                Iterator<Record> iterator = mRecords.iterator();
-                while (iterator.hasNext()) {
-                    Record record = (Record) iterator.next();
-
-                    FmListener listener = record.mCallback;
-
-                    if (listener == null) {
-                        iterator.remove();
-                        return;
-                    }
-
-                    listener.onCallBack(bundle);
-                }
+        for (Record record : mRecords) {
+            FmListener listener = record.mCallback;
+            if (listener == null) {
+                mRecords.remove(record);
+                continue;
             }
+            listener.onCallBack(bundle);
         }
     }
 
@@ -2388,20 +3162,20 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @param bundle The message to activity
      */
     private void notifyCurrentActivityStateChanged(Bundle bundle) {
-        if (!mRecords.isEmpty()) {
-            Log.d(TAG, "notifyCurrentActivityStateChanged = " + mRecords.size());
-            synchronized (mRecords) {
-                if (mRecords.size() > 0) {
-                    Record record  = mRecords.get(mRecords.size() - 1);
-                    FmListener listener = record.mCallback;
-                    if (listener == null) {
-                        mRecords.remove(record);
-                        return;
-                    }
-                    listener.onCallBack(bundle);
-                }
-            }
+        Record current = null;
+        for (Record record : mRecords) {
+            current = record;
+        }
+        if (current == null) {
+            return;
         }
+        Log.d(TAG, "notifyCurrentActivityStateChanged = " + mRecords.size());
+        FmListener listener = current.mCallback;
+        if (listener == null) {
+            mRecords.remove(current);
+            return;
+        }
+        listener.onCallBack(bundle);
     }
 
     /**
@@ -2420,11 +3194,9 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     private void remove(int hashCode) {
         synchronized (mRecords) {
-            Iterator<Record> iterator = mRecords.iterator();
-            while (iterator.hasNext()) {
-                Record record = (Record) iterator.next();
+            for (Record record : mRecords) {
                 if (record.mHashCode == hashCode) {
-                    iterator.remove();
+                    mRecords.remove(record);
                 }
             }
         }
@@ -2450,20 +3222,12 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
 
         int stationNum = 0;
         if (null != stations) {
-            int searchedListSize = stations.length;
-            if (mIsDistanceExceed) {
-                FmStation.cleanSearchedStations(mContext);
-                for (int j = 0; j < searchedListSize; j++) {
-                    int freqSearched = stations[j];
-                    if (FmUtils.isValidStation(freqSearched) &&
-                            !FmStation.isFavoriteStation(mContext, freqSearched)) {
-                        FmStation.insertStationToDb(mContext, freqSearched, null);
-                    }
-                }
-            } else {
-                // get stations from db
-                stationNum = updateDBInLocation(stations);
-            }
+            long start = SystemClock.elapsedRealtime();
+            // keep favorite and rds of stations searched again, delete the others
+            stationNum = FmStation.updateSearchedStations(mContext, stations,
+                    mIsDistanceExceed);
+            Log.d(TAG, "updateStations, " + stations.length + " stations stored in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
         }
 
         Log.d(TAG, "updateStations.firstValidstation:" + firstValidstation +
@@ -2474,79 +3238,125 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     }
 
     /**
-     * update DB, keep favorite and rds which is searched this time,
-     * delete rds from db which is not searched this time.
-     * @param stations
-     * @return number of valid searched stations
+     * The background handler
      */
-    private int updateDBInLocation(int[] stations) {
-        int stationNum = 0;
-        int searchedListSize = stations.length;
-        ArrayList<Integer> stationsInDB = new ArrayList<Integer>();
-        Cursor cursor = null;
-        try {
-            // get non favorite stations
-            cursor = mContext.getContentResolver().query(Station.CONTENT_URI,
-                    new String[] { FmStation.Station.FREQUENCY },
-                    FmStation.Station.IS_FAVORITE + "=0",
-                    null, FmStation.Station.FREQUENCY);
-            if ((null != cursor) && cursor.moveToFirst()) {
-
-                do {
-                    int freqInDB = cursor.getInt(cursor.getColumnIndex(
-                            FmStation.Station.FREQUENCY));
-                    stationsInDB.add(freqInDB);
-                } while (cursor.moveToNext());
+    class FmRadioServiceHandler extends Handler {
+        private static final int DOUBLE_CLICK_TIMEOUT = 800;
+        private int mHeadsetHookClickCounter = 0;
+        // Timed commands pending, per message id and in total, guarded by
+        // mPendingLock
+        private final Object mPendingLock = new Object();
+        private final SparseIntArray mPendingCommands = new SparseIntArray();
+        private int mQueueDepth = 0;
+        private int mMaxQueueDepth = 0;
 
-            } else {
-                Log.d(TAG, "updateDBInLocation, insertSearchedStation cursor is null");
+        public FmRadioServiceHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            FmMetrics.Histogram latency = sMessageLatencies.get(msg.what);
+            if (latency == null) {
+                super.dispatchMessage(msg);
+                return;
+            }
+            long start = System.nanoTime();
+            long queuedAt = msg.getWhen();
+            if (queuedAt == 0 && msg.obj instanceof Long) {
+                // sent at the front of the queue, see powerDownAsync
+                queuedAt = (Long) msg.obj;
             }
-        } finally {
-            if (null != cursor) {
-                cursor.close();
+            if (queuedAt > 0) {
+                sMessageWaits.get(msg.what).record(
+                        Math.max(0, SystemClock.uptimeMillis() - queuedAt), true);
+            }
+            synchronized (mPendingLock) {
+                int pending = mPendingCommands.get(msg.what);
+                // may be gone already if removed while being dispatched
+                if (pending > 0) {
+                    mPendingCommands.put(msg.what, pending - 1);
+                    mQueueDepth--;
+                }
             }
+            super.dispatchMessage(msg);
+            latency.recordSince(start, true);
         }
 
-        int listSizeInDB = stationsInDB.size();
-        // delete station if db frequency is not in searched list
-        for (int i = 0; i < listSizeInDB; i++) {
-            int freqInDB = stationsInDB.get(i);
-            for (int j = 0; j < searchedListSize; j++) {
-                int freqSearched = stations[j];
-                if (freqInDB == freqSearched) {
-                    break;
-                }
-                if (j == (searchedListSize - 1) && freqInDB != freqSearched) {
-                    // delete from db
-                    FmStation.deleteStationInDb(mContext, freqInDB);
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            if (sMessageLatencies.get(msg.what) == null) {
+                return super.sendMessageAtTime(msg, uptimeMillis);
+            }
+            synchronized (mPendingLock) {
+                int what = msg.what;
+                boolean queued = super.sendMessageAtTime(msg, uptimeMillis);
+                if (queued) {
+                    onCommandQueuedLocked(what);
                 }
+                return queued;
             }
         }
 
-        // add to db if station is not in db
-        for (int j = 0; j < searchedListSize; j++) {
-            int freqSearched = stations[j];
-            if (FmUtils.isValidStation(freqSearched)) {
-                stationNum++;
-                if (!stationsInDB.contains(freqSearched)
-                        && !FmStation.isFavoriteStation(mContext, freqSearched)) {
-                    // insert to db
-                    FmStation.insertStationToDb(mContext, freqSearched, "");
+        /**
+         * Queue a command ahead of all the others, counted in the queue depth
+         * unlike {@link #sendMessageAtFrontOfQueue}
+         */
+        boolean sendCommandAtFrontOfQueue(Message msg) {
+            synchronized (mPendingLock) {
+                int what = msg.what;
+                boolean queued = sendMessageAtFrontOfQueue(msg);
+                if (queued) {
+                    onCommandQueuedLocked(what);
                 }
+                return queued;
             }
         }
-        return stationNum;
-    }
 
-    /**
-     * The background handler
-     */
-    class FmRadioServiceHandler extends Handler {
-        private static final int DOUBLE_CLICK_TIMEOUT = 800;
-        private int mHeadsetHookClickCounter = 0;
+        /**
+         * Remove the pending commands of a message id, keeping the queue
+         * depth in step
+         */
+        void removeCommands(int what) {
+            synchronized (mPendingLock) {
+                removeMessages(what);
+                mQueueDepth -= mPendingCommands.get(what);
+                mPendingCommands.delete(what);
+            }
+        }
 
-        public FmRadioServiceHandler(Looper looper) {
-            super(looper);
+        /**
+         * Remove every pending message and callback
+         */
+        void removeAllCommands() {
+            synchronized (mPendingLock) {
+                removeCallbacksAndMessages(null);
+                mPendingCommands.clear();
+                mQueueDepth = 0;
+            }
+        }
+
+        private void onCommandQueuedLocked(int what) {
+            mPendingCommands.put(what, mPendingCommands.get(what) + 1);
+            mQueueDepth++;
+            if (mQueueDepth > mMaxQueueDepth) {
+                mMaxQueueDepth = mQueueDepth;
+            }
+        }
+
+        /**
+         * @return The number of timed commands waiting to run
+         */
+        int getQueueDepth() {
+            synchronized (mPendingLock) {
+                return mQueueDepth;
+            }
+        }
+
+        int getMaxQueueDepth() {
+            synchronized (mPendingLock) {
+                return mMaxQueueDepth;
+            }
         }
 
         @Override
@@ -2560,7 +3370,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                 // power up
                 case FmListener.MSGID_POWERUP_FINISHED:
                     bundle = msg.getData();
-                    handlePowerUp(bundle);
+                    handlePowerUp(bundle, msg.getWhen());
                     mIsSpeakerUsed = !isHeadSetIn();
                     break;
 
@@ -2619,17 +3429,17 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                 // tune to station
                 case FmListener.MSGID_TUNE_FINISHED:
                     bundle = msg.getData();
-                    float tuneStation = bundle.getFloat(FM_FREQUENCY);
+                    int tuneStation = bundle.getInt(FM_STATION);
                     boolean isTune = tuneStation(tuneStation);
                     // if tune fail, pass current station to update ui
                     if (!isTune) {
-                        tuneStation = FmUtils.computeFrequency(mCurrentStation);
+                        tuneStation = mCurrentStation;
                     }
                     bundle = new Bundle(3);
                     bundle.putInt(FmListener.CALLBACK_FLAG,
                             FmListener.MSGID_TUNE_FINISHED);
                     bundle.putBoolean(FmListener.KEY_IS_TUNE, isTune);
-                    bundle.putFloat(FmListener.KEY_TUNE_TO_STATION, tuneStation);
+                    bundle.putInt(FmListener.KEY_TUNE_TO_STATION, tuneStation);
                     notifyActivityStateChanged(bundle);
                     break;
 
@@ -2637,22 +3447,21 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                 case FmListener.MSGID_SEEK_FINISHED:
                     bundle = msg.getData();
                     mIsSeeking = true;
-                    float seekStation = seekStation(bundle.getFloat(FM_FREQUENCY),
+                    int seekStation = seekStation(bundle.getInt(FM_STATION),
                             bundle.getBoolean(OPTION));
                     boolean isStationTunningSuccessed = false;
-                    int station = FmUtils.computeStation(seekStation);
-                    if (FmUtils.isValidStation(station)) {
+                    if (FmUtils.isValidStation(seekStation)) {
                         isStationTunningSuccessed = tuneStation(seekStation);
                     }
                     // if tune fail, pass current station to update ui
                     if (!isStationTunningSuccessed) {
-                        seekStation = FmUtils.computeFrequency(mCurrentStation);
+                        seekStation = mCurrentStation;
                     }
                     bundle = new Bundle(2);
                     bundle.putInt(FmListener.CALLBACK_FLAG,
                             FmListener.MSGID_TUNE_FINISHED);
                     bundle.putBoolean(FmListener.KEY_IS_TUNE, isStationTunningSuccessed);
-                    bundle.putFloat(FmListener.KEY_TUNE_TO_STATION, seekStation);
+                    bundle.putInt(FmListener.KEY_TUNE_TO_STATION, seekStation);
                     notifyActivityStateChanged(bundle);
                     mIsSeeking = false;
                     break;
@@ -2664,20 +3473,44 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     int scanTuneStation = 0;
                     boolean isScan = true;
                     mIsScanning = true;
-                    if (powerUp(FmUtils.DEFAULT_STATION_FLOAT)) {
-                        stations = startScan();
+                    mIsVerifyingScan = msg.arg1 == SCAN_VERIFY;
+                    // back in a known area, restore its stations instead of sweeping
+                    String scanCell = mScanCell;
+                    int[] cachedStations = null;
+                    if (msg.arg1 != SCAN_VERIFY && mIsDistanceExceed && scanCell != null) {
+                        cachedStations = mScanResultCache.get(scanCell);
+                    }
+                    if (powerUp(FmUtils.getDefaultStation())) {
+                        if (cachedStations != null) {
+                            Log.d(TAG, "restore " + cachedStations.length
+                                    + " stations of cell " + scanCell);
+                            stations = cachedStations;
+                        } else {
+                            stations = mUseIncrementalScan ? startIncrementalScan() : startScan();
+                        }
                     }
 
                     // check whether cancel scan
                     if ((null != stations) && stations[0] == -100) {
                         isScan = false;
+                        sScansCanceled.increment();
                         result = new int[] {
                                 -1, 0
                         };
                     } else {
                         result = updateStations(stations);
                         scanTuneStation = result[0];
-                        tuneStation(FmUtils.computeFrequency(mCurrentStation));
+                        tuneStation(mCurrentStation);
+                        if (cachedStations != null) {
+                            // the area is known now, reconcile instead of cleaning
+                            mIsDistanceExceed = false;
+                            if (mVerifyCachedScan) {
+                                sendMessage(obtainMessage(FmListener.MSGID_SCAN_FINISHED,
+                                        SCAN_VERIFY, 0));
+                            }
+                        } else if (scanCell != null && result[1] > 0) {
+                            mScanResultCache.put(scanCell, stations);
+                        }
                     }
 
                     /*
@@ -2695,6 +3528,12 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     bundle.putBoolean(FmListener.KEY_IS_SCAN, isScan);
 
                     mIsScanning = false;
+                    if (mIsVerifyingScan && !isScan) {
+                        // the user tuned away, the restored stations stand
+                        mIsVerifyingScan = false;
+                        break;
+                    }
+                    mIsVerifyingScan = false;
                     // Only notify the newest request activity
                     notifyCurrentActivityStateChanged(bundle);
                     break;
@@ -2706,6 +3545,10 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     updateAudioFocus(focusState);
                     break;
 
+                case FmListener.MSGID_POWER_POLICY_CHANGED:
+                    applyPowerMode();
+                    break;
+
                 case FmListener.MSGID_SET_RDS_FINISHED:
                     bundle = msg.getData();
                     setRds(bundle.getBoolean(OPTION));
@@ -2720,13 +3563,17 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     activeAf();
                     break;
 
+                case FmListener.MSGID_SET_REGION_FINISHED:
+                    handleSetRegion();
+                    break;
+
                 case FmListener.MSGID_HEADSET_HOOK_EVENT: {
                     bundle = msg.getData();
                     long eventTime = bundle.getLong(FmListener.KEY_HEADSET_HOOK_EVENT);
 
                     mHeadsetHookClickCounter = Math.min(mHeadsetHookClickCounter + 1, 3);
                     Log.d(TAG, "Got headset click, count = " + mHeadsetHookClickCounter);
-                    removeMessages(FmListener.MSGID_HEADSET_HOOK_MULTI_CLICK_TIMEOUT);
+                    removeCommands(FmListener.MSGID_HEADSET_HOOK_MULTI_CLICK_TIMEOUT);
 
                     if (mHeadsetHookClickCounter == 3) {
                         sendEmptyMessage(FmListener.MSGID_HEADSET_HOOK_MULTI_CLICK_TIMEOUT);
@@ -2744,14 +3591,14 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                             if (isPlaying()) {
                                 powerDownAsync();
                             } else {
-                                powerUpAsync(FmUtils.computeFrequency(mCurrentStation));
+                                powerUpAsync(mCurrentStation);
                             }
                             break;
                         case 2:
-                            seekStationAsync(FmUtils.computeFrequency(mCurrentStation), true);
+                            seekStationAsync(mCurrentStation, true);
                             break;
                         case 3:
-                            seekStationAsync(FmUtils.computeFrequency(mCurrentStation), false);
+                            seekStationAsync(mCurrentStation, false);
                             break;
                     }
                     mHeadsetHookClickCounter = 0;
@@ -2790,20 +3637,49 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private void handlePowerDown() {
         Bundle bundle;
         boolean isPowerdown = powerDown();
+        updatePowerPolicy();
         bundle = new Bundle(1);
         bundle.putInt(FmListener.CALLBACK_FLAG, FmListener.MSGID_POWERDOWN_FINISHED);
         notifyActivityStateChanged(bundle);
     }
 
+    /**
+     * Apply the band plan in use to the tuner. A station off the new grid is
+     * left for the closest channel, or the default one if out of band, and
+     * the activity is called back as after a tune.
+     */
+    private void handleSetRegion() {
+        BandPlan plan = BandPlan.getCurrent();
+        Log.d(TAG, "handleSetRegion, " + plan);
+        mTuner.setRegion(plan.mNativeBand, plan.mNativeSpacing, plan.mNativeDeemphasis);
+        if (plan.isOnGrid(mCurrentStation)) {
+            return;
+        }
+        int station = plan.contains(mCurrentStation)
+                ? plan.snap(mCurrentStation) : plan.mDefaultStation;
+        boolean isTune = false;
+        if (isPlaying()) {
+            isTune = tuneStation(station);
+        } else {
+            mCurrentStation = station;
+            FmStation.setCurrentStation(mContext, mCurrentStation);
+        }
+        Bundle bundle = new Bundle(3);
+        bundle.putInt(FmListener.CALLBACK_FLAG, FmListener.MSGID_TUNE_FINISHED);
+        bundle.putBoolean(FmListener.KEY_IS_TUNE, isTune);
+        bundle.putInt(FmListener.KEY_TUNE_TO_STATION, mCurrentStation);
+        notifyActivityStateChanged(bundle);
+    }
+
     /**
      * handle power up, execute power up and call back to activity.
      *
      * @param bundle power up frequency
      */
-    private void handlePowerUp(Bundle bundle) {
+    private void handlePowerUp(Bundle bundle, long requestTime) {
         boolean isPowerUp = false;
         boolean isSwitch = true;
-        float curFrequency = bundle.getFloat(FM_FREQUENCY);
+        int curStation = bundle.getInt(FM_STATION);
 
         if (!isAntennaAvailable()) {
             Log.d(TAG, "handlePowerUp, earphone is not ready");
@@ -2813,21 +3689,91 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
             notifyActivityStateChanged(bundle);
             return;
         }
-        if (powerUp(curFrequency)) {
+
+        PowerUpTrace trace = null;
+        Thread preparation = null;
+        if (!isPlaying()) {
+            trace = new PowerUpTrace(requestTime);
+            trace.mark("queued");
+            mLastPowerUpTrace = trace;
+            // the tuner power up takes long, get the rest ready meanwhile
+            preparation = startPlaybackPreparation(curStation, trace);
+        }
+        boolean isTunerUp = powerUp(curStation, trace);
+        if (preparation != null) {
+            try {
+                preparation.join(POWER_UP_PREPARE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "handlePowerUp, interrupted while preparing playback");
+            }
+            trace.mark("wait preparation");
+        }
+        if (isTunerUp) {
+            mPowerUpTrace = trace;
             if (FmUtils.isFirstTimePlayFm(mContext)) {
-                isPowerUp = firstPlaying(curFrequency);
+                isPowerUp = firstPlaying(curStation);
                 FmUtils.setIsFirstTimePlayFm(mContext);
             } else {
-                isPowerUp = playFrequency(curFrequency);
+                isPowerUp = playFrequency(curStation);
             }
             mPausedByTransientLossOfFocus = false;
+            if (trace != null) {
+                trace.mark("start playback");
+                if (mAudioPatch != null) {
+                    // the hardware patch plays without going through the render thread
+                    onFrameRendered();
+                }
+            }
         }
+        if (!isPowerUp) {
+            sPowerUpFailures.increment();
+        }
+        updatePowerPolicy();
         bundle = new Bundle(2);
         bundle.putInt(FmListener.CALLBACK_FLAG, FmListener.MSGID_POWERUP_FINISHED);
         bundle.putInt(FmListener.KEY_TUNE_TO_STATION, mCurrentStation);
         notifyActivityStateChanged(bundle);
     }
 
+    /**
+     * Do the power up work which does not need the tuner on a separate
+     * thread: audio sink, notification channel and artwork, station data
+     *
+     * @param station The station about to play
+     * @param trace Receives the duration of every step
+     *
+     * @return The started thread
+     */
+    private Thread startPlaybackPreparation(final int station, final PowerUpTrace trace) {
+        Thread thread = new Thread("FmPowerUpPreparation") {
+            @Override
+            public void run() {
+                long start = SystemClock.uptimeMillis();
+                prepareAudioSink();
+                long now = SystemClock.uptimeMillis();
+                trace.markParallel("audio sink", now - start);
+
+                start = now;
+                synchronized (mNotificationLock) {
+                    ensureNotificationChannel();
+                }
+                ArtworkCache artworks = ArtworkCache.getInstance(mContext);
+                artworks.get(station, ArtworkCache.SIZE_ARTWORK);
+                now = SystemClock.uptimeMillis();
+                trace.markParallel("notification", now - start);
+
+                start = now;
+                FmStation.getCurrentStation(mContext);
+                StationCache.getInstance(mContext).getStation(station);
+                trace.markParallel("station data", SystemClock.uptimeMillis() - start);
+                // favorites are likely to be tuned next
+                artworks.prerenderFavorites();
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
     /**
      * check FM is foreground or background
      */
@@ -2841,6 +3787,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     public void setFmMainActivityForeground(boolean isForeground) {
         mIsFmMainForeground = isForeground;
+        updatePowerPolicy();
     }
 
     /**
@@ -2849,6 +3796,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     public void setFmFavoriteForeground(boolean isForeground) {
         mIsFmFavoriteForeground = isForeground;
+        updatePowerPolicy();
     }
 
     /**
@@ -2857,6 +3805,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      */
     public void setFmRecordActivityForeground(boolean isForeground) {
         mIsFmRecordForeground = isForeground;
+        updatePowerPolicy();
     }
 
     /**
@@ -2922,23 +3871,22 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         super.onTaskRemoved(rootIntent);
     }
 
-    private boolean firstPlaying(float frequency) {
+    private boolean firstPlaying(int station) {
         if (mPowerStatus != POWER_UP) {
             Log.w(TAG, "firstPlaying, FM is not powered up");
             return false;
         }
         boolean isSeekTune = false;
-        float seekStation = FmNative.seek(frequency, false);
-        int station = FmUtils.computeStation(seekStation);
-        if (FmUtils.isValidStation(station)) {
-            isSeekTune = FmNative.tune(seekStation);
+        int seekStation = mTuner.seek(station, false);
+        if (FmUtils.isValidStation(seekStation)) {
+            isSeekTune = mTuner.tune(seekStation);
             if (isSeekTune) {
                 playFrequency(seekStation);
             }
         }
         // if tune fail, pass current station to update ui
         if (!isSeekTune) {
-            seekStation = FmUtils.computeFrequency(mCurrentStation);
+            seekStation = mCurrentStation;
         }
         return isSeekTune;
     }
@@ -2951,11 +3899,28 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         mIsDistanceExceed = exceed;
     }
 
+    /**
+     * Set the location of the next scan, its results are cached for the area
+     *
+     * @param latitude The latitude
+     * @param longitude The longitude
+     */
+    public void setScanLocation(double latitude, double longitude) {
+        mScanCell = ScanResultCache.computeCell(latitude, longitude);
+    }
+
     /**
      * Set notification class name
      * @param clsName The target class name of activity
      */
     public void setNotificationClsName(String clsName) {
-        mTargetClassName = clsName;
+        synchronized (mNotificationLock) {
+            if (TextUtils.equals(clsName, mTargetClassName)) {
+                return;
+            }
+            mTargetClassName = clsName;
+            // rebuilt and reposted on the next update
+            mContentIntent = null;
+        }
     }
 }
@@ -16,14 +16,23 @@
 
 package com.android.fmradio;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class provider interface to operator databases, use by activity and
@@ -37,6 +46,14 @@ public class FmStation {
     public static final String STATION = "station";
     // store current station in share preference with this key
     public static final String CURRENT_STATION = "curent_station";
+    // insert query parameter, update the row with the same frequency if any
+    public static final String PARAM_UPSERT = "upsert";
+    // use to composite the RDS history uri
+    public static final String RDS_HISTORY = "rds_history";
+    // query parameter, "offset,count" of the rows to return
+    public static final String PARAM_LIMIT = "limit";
+    // path of the change notifications about a single frequency
+    private static final String FREQUENCY_PATH = "frequency";
 
     public static final String[] COLUMNS = new String[] {
         Station._ID,
@@ -84,6 +101,91 @@ public class FmStation {
         public static final String RADIO_TEXT = "radio_text";
     }
 
+    /**
+     * This class provider the columns of RdsHistory table. Every station keeps
+     * a ring of the last PS and of the last RT values, a new value replaces
+     * the oldest one.
+     */
+    public static final class RdsHistory implements BaseColumns {
+        public static final Uri CONTENT_URI =
+                Uri.parse("content://" + AUTHORITY + "/" + RDS_HISTORY);
+
+        // TYPE of a program service
+        public static final int TYPE_PROGRAM_SERVICE = 0;
+        // TYPE of a radio text
+        public static final int TYPE_RADIO_TEXT = 1;
+
+        /**
+         * Station frequency
+         * <P>Type: INTEGER </P>
+         */
+        public static final String FREQUENCY = "frequency";
+
+        /**
+         * TYPE_PROGRAM_SERVICE or TYPE_RADIO_TEXT
+         * <P>Type: INTEGER </P>
+         */
+        public static final String TYPE = "type";
+
+        /**
+         * Number of the value among the values of its station and type,
+         * increasing by one per value
+         * <P>Type: INTEGER </P>
+         */
+        public static final String SEQUENCE = "sequence";
+
+        /**
+         * Position in the ring of its station and type, SEQUENCE modulo the
+         * ring size
+         * <P>Type: INTEGER </P>
+         */
+        public static final String SLOT = "slot";
+
+        /**
+         * The PS or RT
+         * <P>Type: TEXT</P>
+         */
+        public static final String TEXT = "text";
+
+        /**
+         * When the value was received, in ms since the epoch
+         * <P>Type: INTEGER </P>
+         */
+        public static final String TIME = "time";
+    }
+
+    /**
+     * Get the uri change notifications about a single station are sent to
+     *
+     * @param frequency The station frequency
+     *
+     * @return The uri
+     */
+    static Uri getFrequencyUri(int frequency) {
+        return Station.CONTENT_URI.buildUpon().appendPath(FREQUENCY_PATH)
+                .appendPath(String.valueOf(frequency)).build();
+    }
+
+    /**
+     * Get the station of a {@link #getFrequencyUri} uri
+     *
+     * @param uri The notified uri
+     *
+     * @return The station frequency, or -1 if the uri is about other rows
+     */
+    static int parseFrequencyUri(Uri uri) {
+        List<String> segments = uri == null ? null : uri.getPathSegments();
+        if (segments == null || segments.size() != 3
+                || !FREQUENCY_PATH.equals(segments.get(1))) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(segments.get(2));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Insert station information to database
      *
@@ -96,6 +198,7 @@ public class FmStation {
         values.put(Station.FREQUENCY, frequency);
         values.put(Station.STATION_NAME, stationName);
         context.getContentResolver().insert(Station.CONTENT_URI, values);
+        StationCache.getInstance(context).invalidate(frequency);
     }
 
     /**
@@ -115,6 +218,7 @@ public class FmStation {
         values.put(Station.PROGRAM_SERVICE, ps);
         values.put(Station.RADIO_TEXT, rt);
         context.getContentResolver().insert(Station.CONTENT_URI, values);
+        StationCache.getInstance(context).invalidate(frequency);
     }
 
     /**
@@ -125,6 +229,56 @@ public class FmStation {
      */
     public static void insertStationToDb(Context context, ContentValues values) {
         context.getContentResolver().insert(Station.CONTENT_URI, values);
+        Integer frequency = values.getAsInteger(Station.FREQUENCY);
+        if (frequency != null) {
+            StationCache.getInstance(context).invalidate(frequency);
+        } else {
+            StationCache.getInstance(context).invalidateAll();
+        }
+    }
+
+    /**
+     * Insert a station or update it if the frequency is already in database,
+     * with a single provider call
+     *
+     * @param context The context
+     * @param frequency The station frequency
+     * @param values The values to store, the frequency is added
+     */
+    public static void upsertStationToDb(Context context, int frequency, ContentValues values) {
+        values.put(Station.FREQUENCY, frequency);
+        context.getContentResolver().insert(Station.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_UPSERT, "true").build(), values);
+        StationCache.getInstance(context).invalidate(frequency);
+    }
+
+    /**
+     * Insert or update several stations in one transaction, like
+     * {@link #upsertStationToDb} for each of them
+     *
+     * @param context The context
+     * @param stations Frequency to values to store, the frequencies are added
+     */
+    public static void upsertStationsToDb(Context context, SparseArray<ContentValues> stations) {
+        Uri uri = Station.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_UPSERT, "true").build();
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(stations.size());
+        for (int i = 0; i < stations.size(); i++) {
+            ContentValues values = stations.valueAt(i);
+            values.put(Station.FREQUENCY, stations.keyAt(i));
+            operations.add(ContentProviderOperation.newInsert(uri).withValues(values).build());
+        }
+        try {
+            context.getContentResolver().applyBatch(AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "upsertStationsToDb, failed to apply " + operations.size()
+                    + " operations", e);
+        }
+        StationCache cache = StationCache.getInstance(context);
+        for (int i = 0; i < stations.size(); i++) {
+            cache.invalidate(stations.keyAt(i));
+        }
     }
 
     /**
@@ -143,6 +297,7 @@ public class FmStation {
                 values,
                 Station.FREQUENCY + "=?",
                 new String[] { String.valueOf(frequency)});
+        StationCache.getInstance(context).invalidate(frequency);
     }
 
     /**
@@ -158,6 +313,7 @@ public class FmStation {
                 values,
                 Station.FREQUENCY + "=?",
                 new String[] { String.valueOf(frequency)});
+        StationCache.getInstance(context).invalidate(frequency);
     }
 
     /**
@@ -171,6 +327,7 @@ public class FmStation {
                 Station.CONTENT_URI,
                 Station.FREQUENCY + "=?",
                 new String[] { String.valueOf(frequency)});
+        StationCache.getInstance(context).invalidate(frequency);
     }
 
     /**
@@ -182,24 +339,7 @@ public class FmStation {
      * @return true or false indicate whether station is exist
      */
     public static boolean isStationExist(Context context, int frequency) {
-        boolean isExist = false;
-        Cursor cursor = null;
-        try {
-            cursor = context.getContentResolver().query(
-                Station.CONTENT_URI,
-                new String[] { Station.STATION_NAME },
-                Station.FREQUENCY + "=?",
-                new String[] { String.valueOf(frequency) },
-                null);
-            if (cursor != null && cursor.moveToFirst()) {
-                isExist = true;
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return isExist;
+        return StationCache.getInstance(context).getStation(frequency) != null;
     }
 
     /**
@@ -211,7 +351,11 @@ public class FmStation {
      */
     public static int getCurrentStation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        int currentStation = prefs.getInt(CURRENT_STATION, FmUtils.DEFAULT_STATION);
+        int currentStation = prefs.getInt(CURRENT_STATION, FmUtils.getDefaultStation());
+        // saved before the region changed
+        if (!FmUtils.isValidStation(currentStation)) {
+            currentStation = FmUtils.getDefaultStation();
+        }
         return currentStation;
     }
 
@@ -238,28 +382,8 @@ public class FmStation {
      * @return The station name
      */
     public static String getStationName(Context context, int frequency) {
-        String stationName = null;
-        Cursor cursor = null;
-        try {
-            cursor = context.getContentResolver().query(
-                    Station.CONTENT_URI,
-                    new String[] { Station.STATION_NAME, Station.PROGRAM_SERVICE },
-                    Station.FREQUENCY + "=?",
-                    new String[] { String.valueOf(frequency) },
-                    null);
-            if (cursor != null && cursor.moveToFirst()) {
-                // If the station name is not exist, show program service(PS) instead
-                stationName = cursor.getString(cursor.getColumnIndex(Station.STATION_NAME));
-                if (TextUtils.isEmpty(stationName)) {
-                    stationName = cursor.getString(cursor.getColumnIndex(Station.PROGRAM_SERVICE));
-                }
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return stationName;
+        StationCache.StationInfo info = StationCache.getInstance(context).getStation(frequency);
+        return info == null ? null : info.getDisplayName();
     }
 
     /**
@@ -271,24 +395,8 @@ public class FmStation {
      * @return true or false indicate whether the station is favorite
      */
     public static boolean isFavoriteStation(Context context, int frequency) {
-        boolean isFavorite = false;
-        Cursor cursor = null;
-        try {
-            cursor = context.getContentResolver().query(
-                Station.CONTENT_URI,
-                new String[] { Station.IS_FAVORITE },
-                Station.FREQUENCY + "=?",
-                new String[] { String.valueOf(frequency) },
-                null);
-            if (cursor != null && cursor.moveToFirst()) {
-                isFavorite = cursor.getInt(0) > 0;
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return isFavorite;
+        StationCache.StationInfo info = StationCache.getInstance(context).getStation(frequency);
+        return info != null && info.mIsFavorite;
     }
 
     /**
@@ -305,6 +413,7 @@ public class FmStation {
                 values,
                 Station.FREQUENCY + "=?",
                 new String[] { String.valueOf(frequency) });
+        StationCache.getInstance(context).invalidate(frequency);
     }
 
     /**
@@ -322,6 +431,7 @@ public class FmStation {
                 values,
                 Station.FREQUENCY + "=?",
                 new String[] { String.valueOf(frequency) });
+        StationCache.getInstance(context).invalidate(frequency);
     }
 
     /**
@@ -352,6 +462,170 @@ public class FmStation {
         return stationNus;
     }
 
+    /**
+     * Replace the searched stations with a scan result in one transaction.
+     * Favorites are never touched, and searched stations found again keep
+     * their name and RDS data unless clean is set.
+     *
+     * @param context The context
+     * @param stations The scanned stations, invalid ones are skipped
+     * @param clean Whether to drop every searched station first
+     *
+     * @return The number of valid stations in the scan result
+     */
+    public static int updateSearchedStations(Context context, int[] stations, boolean clean) {
+        int[][] stored = getStoredStations(context);
+        StationDiff diff = StationDiff.compute(stored[0], stored[1], stations, clean);
+        if (diff.isEmpty()) {
+            return diff.mScanned;
+        }
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(diff.mInserts.length + 1);
+        if (diff.mDeletes.length > 0) {
+            StringBuilder selection = new StringBuilder(Station.FREQUENCY + " IN (");
+            for (int i = 0; i < diff.mDeletes.length; i++) {
+                selection.append(i == 0 ? "" : ",").append(diff.mDeletes[i]);
+            }
+            operations.add(ContentProviderOperation.newDelete(Station.CONTENT_URI)
+                    .withSelection(selection.append(')').toString(), null)
+                    .build());
+        }
+        for (int station : diff.mInserts) {
+            operations.add(ContentProviderOperation.newInsert(Station.CONTENT_URI)
+                    .withValue(Station.FREQUENCY, station)
+                    .build());
+        }
+        try {
+            context.getContentResolver().applyBatch(AUTHORITY, operations);
+            StationCache.getInstance(context).invalidateAll();
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "updateSearchedStations, failed to apply " + operations.size()
+                    + " operations", e);
+        }
+        return diff.mScanned;
+    }
+
+    /**
+     * Get the stations in database with a single query
+     *
+     * @param context The context
+     *
+     * @return The searched stations and the favorite stations
+     */
+    private static int[][] getStoredStations(Context context) {
+        int[] searched = new int[0];
+        int[] favorites = new int[0];
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    Station.CONTENT_URI,
+                    new String[] { Station.FREQUENCY, Station.IS_FAVORITE },
+                    null,
+                    null,
+                    null);
+            if (cursor != null) {
+                searched = new int[cursor.getCount()];
+                favorites = new int[cursor.getCount()];
+                int searchedNum = 0;
+                int favoriteNum = 0;
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(1) == 0) {
+                        searched[searchedNum++] = cursor.getInt(0);
+                    } else {
+                        favorites[favoriteNum++] = cursor.getInt(0);
+                    }
+                }
+                searched = Arrays.copyOf(searched, searchedNum);
+                favorites = Arrays.copyOf(favorites, favoriteNum);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return new int[][] { searched, favorites };
+    }
+
+    /**
+     * Get a page of the RDS history of a station, newest first. Pages follow
+     * the last value read rather than an offset, so values written meanwhile
+     * do not shift them.
+     *
+     * @param context The context
+     * @param frequency The station frequency
+     * @param beforeTime TIME of the last value read, Long.MAX_VALUE for the
+     *        first page
+     * @param beforeType TYPE of the last value read
+     * @param beforeSequence SEQUENCE of the last value read
+     * @param count The maximum number of values to return
+     *
+     * @return A cursor over the TYPE, TEXT, TIME and SEQUENCE columns, or null
+     */
+    public static Cursor getRdsHistory(Context context, int frequency, long beforeTime,
+            int beforeType, long beforeSequence, int count) {
+        Uri uri = RdsHistory.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_LIMIT, String.valueOf(count)).build();
+        String time = String.valueOf(beforeTime);
+        String type = String.valueOf(beforeType);
+        return context.getContentResolver().query(
+                uri,
+                new String[] {
+                        RdsHistory.TYPE, RdsHistory.TEXT, RdsHistory.TIME, RdsHistory.SEQUENCE
+                },
+                RdsHistory.FREQUENCY + "=? AND (" + RdsHistory.TIME + "<? OR ("
+                        + RdsHistory.TIME + "=? AND (" + RdsHistory.TYPE + "<? OR ("
+                        + RdsHistory.TYPE + "=? AND " + RdsHistory.SEQUENCE + "<?))))",
+                new String[] {
+                        String.valueOf(frequency), time, time, type, type,
+                        String.valueOf(beforeSequence)
+                },
+                RdsHistory.TIME + " DESC," + RdsHistory.TYPE + " DESC,"
+                        + RdsHistory.SEQUENCE + " DESC");
+    }
+
+    /**
+     * Get the sequence of the newest value in the RDS history ring of a
+     * station
+     *
+     * @param context The context
+     * @param frequency The station frequency
+     * @param type RdsHistory.TYPE_PROGRAM_SERVICE or TYPE_RADIO_TEXT
+     *
+     * @return The sequence, -1 if the ring is empty
+     */
+    static long getLastRdsHistorySequence(Context context, int frequency, int type) {
+        long sequence = -1;
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    RdsHistory.CONTENT_URI,
+                    new String[] { "MAX(" + RdsHistory.SEQUENCE + ")" },
+                    RdsHistory.FREQUENCY + "=? AND " + RdsHistory.TYPE + "=?",
+                    new String[] { String.valueOf(frequency), String.valueOf(type) },
+                    null);
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                sequence = cursor.getLong(0);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Write values to the RDS history rings in one transaction, each row
+     * replaces the one in the same slot
+     *
+     * @param context The context
+     * @param values The rows, with every RdsHistory column but _ID
+     */
+    static void appendRdsHistory(Context context, ContentValues[] values) {
+        context.getContentResolver().bulkInsert(RdsHistory.CONTENT_URI, values);
+    }
+
     /**
      * Clean all stations which station type is searched
      *
@@ -360,6 +634,7 @@ public class FmStation {
     public static void cleanSearchedStations(Context context) {
         context.getContentResolver().delete(Station.CONTENT_URI,
                 Station.IS_FAVORITE + "=0", null);
+        StationCache.getInstance(context).invalidateAll();
     }
 
     /**
@@ -369,5 +644,6 @@ public class FmStation {
      */
     public static void cleanAllStations(Context context) {
         context.getContentResolver().delete(Station.CONTENT_URI, null, null);
+        StationCache.getInstance(context).invalidateAll();
     }
 }
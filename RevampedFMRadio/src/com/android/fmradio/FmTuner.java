@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+/**
+ * The FM tuner as seen by the service. {@link NativeFmTuner} drives the
+ * chip through {@link FmNative}, {@link SimulatedFmTuner} models a band
+ * so the service can run on a device without one.
+ */
+interface FmTuner {
+    /**
+     * Open FM device, call before power up
+     *
+     * @return (true,success; false, failed)
+     */
+    boolean openDev();
+
+    /**
+     * Close FM device, call after power down
+     *
+     * @return (true, success; false, failed)
+     */
+    boolean closeDev();
+
+    /**
+     * power up FM with frequency use long antenna
+     *
+     * @param station station in 100KHZ units, 875 for 87.5
+     *
+     * @return (true, success; false, failed)
+     */
+    boolean powerUp(int station);
+
+    /**
+     * Power down FM
+     *
+     * @param type (0, FMRadio; 1, FMTransimitter)
+     *
+     * @return (true, success; false, failed)
+     */
+    boolean powerDown(int type);
+
+    /**
+     * tune to frequency
+     *
+     * @param station station in 100KHZ units, 875 for 87.5
+     *
+     * @return (true, success; false, failed)
+     */
+    boolean tune(int station);
+
+    /**
+     * seek with frequency in direction
+     *
+     * @param station station in 100KHZ units, 875 for 87.5
+     * @param isUp (true, next station; false previous station)
+     *
+     * @return the station found, the given station if none
+     */
+    int seek(int station, boolean isUp);
+
+    /**
+     * Set the band plan, applied at once if powered up and kept for the
+     * next power up
+     *
+     * @param band (1, 87.5-108; 2, 76-108; 3, 76-90)
+     * @param spacing (0, 200KHZ; 1, 100KHZ)
+     * @param deemphasis (0, 75us; 1, 50us)
+     *
+     * @return (true, success; false, failed)
+     */
+    boolean setRegion(int band, int spacing, int deemphasis);
+
+    /**
+     * Auto scan over the band set by {@link #setRegion}
+     *
+     * @return The scan station array(short)
+     */
+    short[] autoScan();
+
+    /**
+     * Stop scan, also can stop seek, other native when scan should call stop
+     * scan first, else will execute wait auto scan finish
+     *
+     * @return (true, can stop scan process; false, can't stop scan process)
+     */
+    boolean stopScan();
+
+    /**
+     * Open or close rds fuction
+     *
+     * @param rdson The rdson (true, open; false, close)
+     *
+     * @return rdsset
+     */
+    int setRds(boolean rdson);
+
+    /**
+     * Read rds events
+     *
+     * @return rds event type
+     */
+    short readRds();
+
+    /**
+     * Get program service(program name)
+     *
+     * @return The program name
+     */
+    byte[] getPs();
+
+    /**
+     * Get radio text, RDS standard does not support Chinese character
+     *
+     * @return The LRT (Last Radio Text) bytes
+     */
+    byte[] getLrText();
+
+    /**
+     * Active alternative frequencies
+     *
+     * @return The frequency(float)
+     */
+    short activeAf();
+
+    /**
+     * Mute or unmute FM voice
+     *
+     * @param mute (true, mute; false, unmute)
+     *
+     * @return (true, success; false, failed)
+     */
+    int setMute(boolean mute);
+
+    /**
+     * Inquiry if RDS is support in driver
+     *
+     * @return (1, support; 0, NOT support; -1, error)
+     */
+    int isRdsSupport();
+
+    /**
+     * Switch antenna
+     *
+     * @param antenna antenna (0, long antenna, 1 short antenna)
+     *
+     * @return (0, success; 1 failed; 2 not support)
+     */
+    int switchAntenna(int antenna);
+
+    /**
+     * Set the driver to low power mode.
+     *
+     * @return (true, success; false, failed)
+     */
+    boolean setLowPowerMode();
+
+    /**
+     * Set the driver to normal power mode.
+     *
+     * @return (true, success; false, failed)
+     */
+    boolean setNormalPowerMode();
+}
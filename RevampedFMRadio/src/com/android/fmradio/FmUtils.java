@@ -35,9 +35,6 @@ import android.view.View.MeasureSpec;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.util.Locale;
-
 import com.android.fmradio.R;
 
 /**
@@ -47,18 +44,6 @@ import com.android.fmradio.R;
 public class FmUtils {
     private static final String TAG = "FmUtils";
 
-    // FM station variables
-    public static final int DEFAULT_STATION = 1000;
-    public static final float DEFAULT_STATION_FLOAT = computeFrequency(DEFAULT_STATION);
-    // maximum station frequency
-    private static final int HIGHEST_STATION = 1080;
-    // minimum station frequency
-    private static final int LOWEST_STATION = 875;
-    // station step
-    private static final int STEP = 1;
-    // convert rate
-    private static final int CONVERT_RATE = 10;
-
     // minimum storage space for record (512KB).
     // Need to check before starting recording and during recording to avoid
     // recording keeps going but there is no free space in sdcard.
@@ -70,6 +55,8 @@ public class FmUtils {
     private static final String FM_LOCATION_LONGITUDE = "fm_location_longitude";
     private static final String FM_IS_FIRST_TIME_PLAY = "fm_is_first_time_play";
     private static final String FM_IS_SPEAKER_MODE = "fm_is_speaker_mode";
+    private static final String FM_RENDER_BUFFER_MODE = "fm_render_buffer_mode";
+    private static final String FM_BAND_REGION = "fm_band_region";
     private static final String FM_IS_FIRST_ENTER_STATION_LIST = "fm_is_first_enter_station_list";
     // StorageManager For FM record
     private static StorageManager sStorageManager = null;
@@ -79,77 +66,95 @@ public class FmUtils {
      *
      * @param station The FM station
      *
-     * @return true if the frequency is in the valid scale, otherwise return
-     *         false
+     * @return true if the frequency is in the band of the current region,
+     *         otherwise return false
      */
     public static boolean isValidStation(int station) {
-        boolean isValid = (station >= LOWEST_STATION && station <= HIGHEST_STATION);
-        return isValid;
+        return BandPlan.getCurrent().contains(station);
     }
 
     /**
-     * Compute increase station frequency
+     * The station tuned when nothing else is known
+     *
+     * @return The default station of the current region
+     */
+    public static int getDefaultStation() {
+        return BandPlan.getCurrent().mDefaultStation;
+    }
+
+    /**
+     * Number of channels of the band, see {@link #computeChannel}
+     */
+    static int getChannelCount() {
+        return BandPlan.getCurrent().mChannelCount;
+    }
+
+    /**
+     * Compute the index of a valid station on the band's channel grid
      *
      * @param station The station frequency
      *
-     * @return station The frequency after increased
+     * @return The channel, from 0 to {@link #getChannelCount()} - 1
      */
-    public static int computeIncreaseStation(int station) {
-        int result = station + STEP;
-        if (result > HIGHEST_STATION) {
-            result = LOWEST_STATION;
-        }
-        return result;
+    static int computeChannel(int station) {
+        return BandPlan.getCurrent().toChannel(station);
     }
 
     /**
-     * Compute decrease station frequency
+     * Compute the station of a channel
      *
-     * @param station The station frequency
+     * @param channel The channel, see {@link #computeChannel}
      *
-     * @return station The frequency after decreased
+     * @return The station frequency
      */
-    public static int computeDecreaseStation(int station) {
-        int result = station - STEP;
-        if (result < LOWEST_STATION) {
-            result = HIGHEST_STATION;
-        }
-        return result;
+    static int computeChannelStation(int channel) {
+        return BandPlan.getCurrent().toStation(channel);
     }
 
     /**
-     * Compute station value with given frequency
+     * Compute increase station frequency
      *
-     * @param frequency The station frequency
+     * @param station The station frequency
      *
-     * @return station The result value
+     * @return station The first channel above the station, wrapping
+     *         around to the bottom of the band
      */
-    public static int computeStation(float frequency) {
-        return (int) (frequency * CONVERT_RATE);
+    public static int computeIncreaseStation(int station) {
+        BandPlan plan = BandPlan.getCurrent();
+        if (station < plan.mLowStation || station >= plan.mHighStation) {
+            return plan.mLowStation;
+        }
+        return plan.toStation(plan.toChannel(station) + 1);
     }
 
     /**
-     * Compute frequency value with given station
+     * Compute decrease station frequency
      *
-     * @param station The station value
+     * @param station The station frequency
      *
-     * @return station The frequency
+     * @return station The first channel below the station, wrapping
+     *         around to the top of the band
      */
-    public static float computeFrequency(int station) {
-        return (float) station / CONVERT_RATE;
+    public static int computeDecreaseStation(int station) {
+        BandPlan plan = BandPlan.getCurrent();
+        if (station <= plan.mLowStation || station > plan.mHighStation) {
+            return plan.mHighStation;
+        }
+        // the channel at or below an off-grid station is already below it
+        int result = plan.toStation(plan.toChannel(station));
+        return result < station ? result : result - plan.mStep;
     }
 
     /**
      * According station to get frequency string
      *
-     * @param station for 100KZ, range 875-1080
+     * @param station for 100KZ, e.g. 875-1080
      *
      * @return string like 87.5
      */
     public static String formatStation(int station) {
-        float frequency = (float) station / CONVERT_RATE;
-        DecimalFormat decimalFormat = new DecimalFormat("0.0");
-        return decimalFormat.format(frequency);
+        // stations of other regions still show up in the favorites
+        return BandPlan.getAllStations().format(station);
     }
 
     /**
@@ -392,4 +397,54 @@ public class FmUtils {
         editor.putBoolean(FM_IS_SPEAKER_MODE, isSpeaker);
         editor.commit();
     }
+
+    /**
+     * Get the buffering mode of software rendering.
+     * @param context the Context
+     * @return one of the RenderBufferController MODE_ constants
+     */
+    public static int getRenderBufferMode(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(FM_RENDER_BUFFER_MODE, RenderBufferController.MODE_BALANCED);
+    }
+
+    /**
+     * Set the buffering mode of software rendering.
+     * @param context the Context
+     * @param mode one of the RenderBufferController MODE_ constants
+     */
+    public static void setRenderBufferMode(Context context, int mode) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit().putInt(FM_RENDER_BUFFER_MODE, mode).apply();
+    }
+
+    /**
+     * Get the band region, see {@link BandPlan}.
+     * @param context the Context
+     * @return one of the BandPlan REGION_ constants
+     */
+    public static int getBandRegion(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(FM_BAND_REGION,
+                context.getResources().getInteger(R.integer.config_defaultBandRegion));
+    }
+
+    /**
+     * Select the band plan of the saved region for this process.
+     * @param context the Context
+     */
+    public static void loadBandPlan(Context context) {
+        BandPlan.setCurrent(getBandRegion(context));
+    }
+
+    /**
+     * Set the band region and switch to its band plan.
+     * @param context the Context
+     * @param region one of the BandPlan REGION_ constants
+     */
+    public static void setBandRegion(Context context, int region) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit().putInt(FM_BAND_REGION, region).apply();
+        BandPlan.setCurrent(region);
+    }
 }
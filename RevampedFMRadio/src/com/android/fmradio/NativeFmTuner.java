@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+/**
+ * The FM chip, through the JNI bindings of {@link FmNative}
+ */
+class NativeFmTuner implements FmTuner {
+    @Override
+    public boolean openDev() {
+        return FmNative.openDev();
+    }
+
+    @Override
+    public boolean closeDev() {
+        return FmNative.closeDev();
+    }
+
+    @Override
+    public boolean powerUp(int station) {
+        return FmNative.powerUp(station);
+    }
+
+    @Override
+    public boolean powerDown(int type) {
+        return FmNative.powerDown(type);
+    }
+
+    @Override
+    public boolean tune(int station) {
+        return FmNative.tune(station);
+    }
+
+    @Override
+    public int seek(int station, boolean isUp) {
+        return FmNative.seek(station, isUp);
+    }
+
+    @Override
+    public boolean setRegion(int band, int spacing, int deemphasis) {
+        return FmNative.setRegion(band, spacing, deemphasis);
+    }
+
+    @Override
+    public short[] autoScan() {
+        return FmNative.autoScan();
+    }
+
+    @Override
+    public boolean stopScan() {
+        return FmNative.stopScan();
+    }
+
+    @Override
+    public int setRds(boolean rdson) {
+        return FmNative.setRds(rdson);
+    }
+
+    @Override
+    public short readRds() {
+        return FmNative.readRds();
+    }
+
+    @Override
+    public byte[] getPs() {
+        return FmNative.getPs();
+    }
+
+    @Override
+    public byte[] getLrText() {
+        return FmNative.getLrText();
+    }
+
+    @Override
+    public short activeAf() {
+        return FmNative.activeAf();
+    }
+
+    @Override
+    public int setMute(boolean mute) {
+        return FmNative.setMute(mute);
+    }
+
+    @Override
+    public int isRdsSupport() {
+        return FmNative.isRdsSupport();
+    }
+
+    @Override
+    public int switchAntenna(int antenna) {
+        return FmNative.switchAntenna(antenna);
+    }
+
+    @Override
+    public boolean setLowPowerMode() {
+        return FmNative.setLowPowerMode();
+    }
+
+    @Override
+    public boolean setNormalPowerMode() {
+        return FmNative.setNormalPowerMode();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity pool of the PCM slabs the render thread reads into.
+ *
+ * AudioTrack and the recorder copy the data out before the render thread
+ * moves on, so a slab has a single owner which {@link Slab#release()}s it
+ * back to the pool once the chunk is rendered.
+ */
+class PcmBufferPool {
+    private final int mSlabSize;
+    private final boolean mDirect;
+    private final ArrayBlockingQueue<Slab> mFreeSlabs;
+    // obtain() served from the pool
+    private final AtomicLong mHits = new AtomicLong();
+    // obtain() had to allocate a new slab
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * @param slabCount The maximum number of slabs kept around for reuse
+     * @param slabSize The size of every slab in bytes
+     * @param direct Whether the slabs are backed by direct buffers instead of
+     *        heap arrays
+     */
+    PcmBufferPool(int slabCount, int slabSize, boolean direct) {
+        mSlabSize = slabSize;
+        mDirect = direct;
+        mFreeSlabs = new ArrayBlockingQueue<Slab>(slabCount);
+        for (int i = 0; i < slabCount; i++) {
+            mFreeSlabs.offer(new Slab(this, slabSize, direct));
+        }
+    }
+
+    /**
+     * Get a free slab, allocating a new one only if the pool is exhausted
+     *
+     * @return An empty slab, owned by the caller until released
+     */
+    Slab obtain() {
+        Slab slab = mFreeSlabs.poll();
+        if (slab != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+            slab = new Slab(this, mSlabSize, mDirect);
+        }
+        slab.mSize = 0;
+        slab.mBuffer.clear();
+        return slab;
+    }
+
+    private void recycle(Slab slab) {
+        // If the pool is already full the extra slab is left to the GC
+        mFreeSlabs.offer(slab);
+    }
+
+    long getHits() {
+        return mHits.get();
+    }
+
+    long getMisses() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PcmBufferPool{slabSize=" + mSlabSize + ", direct=" + mDirect
+                + ", free=" + mFreeSlabs.size()
+                + ", hits=" + mHits.get() + ", misses=" + mMisses.get() + "}";
+    }
+
+    /**
+     * Chunk of PCM data
+     */
+    static class Slab {
+        final ByteBuffer mBuffer;
+        // backing array of mBuffer, null for direct slabs
+        final byte[] mData;
+        // number of valid bytes in the slab
+        int mSize;
+        private final PcmBufferPool mPool;
+
+        private Slab(PcmBufferPool pool, int capacity, boolean direct) {
+            mPool = pool;
+            if (direct) {
+                mBuffer = ByteBuffer.allocateDirect(capacity);
+                mData = null;
+            } else {
+                mData = new byte[capacity];
+                mBuffer = ByteBuffer.wrap(mData);
+            }
+        }
+
+        /**
+         * Give the slab back to the pool, it must not be used afterwards
+         */
+        void release() {
+            mPool.recycle(this);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the PCM copies made between AudioRecord and the encoder, so the
+ * heap and direct capture paths can be compared with dumpsys.
+ */
+class PcmCopyStats {
+    // chunks read from AudioRecord
+    private static final AtomicLong sChunks = new AtomicLong();
+    // copies of PCM data, the AudioRecord read included
+    private static final AtomicLong sCopies = new AtomicLong();
+    private static final AtomicLong sBytes = new AtomicLong();
+    private static volatile long sStartTime = SystemClock.elapsedRealtime();
+
+    /**
+     * A chunk was read from AudioRecord, which is a copy by itself
+     */
+    static void onChunk(int bytes) {
+        sChunks.incrementAndGet();
+        onCopy(bytes);
+    }
+
+    /**
+     * The chunk was copied once more on its way to the encoder
+     */
+    static void onCopy(int bytes) {
+        sCopies.incrementAndGet();
+        sBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Start a new measurement
+     */
+    static void reset() {
+        sChunks.set(0);
+        sCopies.set(0);
+        sBytes.set(0);
+        sStartTime = SystemClock.elapsedRealtime();
+    }
+
+    static String dump() {
+        long chunks = sChunks.get();
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - sStartTime);
+        return String.format("chunks=%d copies/chunk=%.2f bytes moved/s=%d",
+                chunks, chunks == 0 ? 0f : (float) sCopies.get() / chunks,
+                sBytes.get() * 1000 / elapsed);
+    }
+}
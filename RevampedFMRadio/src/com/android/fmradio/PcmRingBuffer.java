@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer byte ring used to hand PCM from
+ * the render thread to the encoder thread without locks or allocations.
+ *
+ * The producer owns the write index, the consumer owns the read index. The
+ * only exception is {@link #OVERFLOW_DROP_OLDEST}, where the producer may
+ * advance the read index itself; the consumer detects that with a CAS and
+ * retries the copy.
+ *
+ * The storage is a direct buffer, so the producer can either copy PCM in
+ * with {@link #write} or let AudioRecord fill the ring in place through
+ * {@link #beginWrite}/{@link #endWrite}.
+ */
+class PcmRingBuffer {
+    // Wait for the consumer to make room
+    static final int OVERFLOW_BLOCK = 0;
+    // Overwrite the oldest queued bytes
+    static final int OVERFLOW_DROP_OLDEST = 1;
+    // Discard the bytes that do not fit
+    static final int OVERFLOW_DROP_NEWEST = 2;
+
+    // Poll period while blocked on a full ring
+    private static final long BLOCK_PARK_NANOS = 1000000L;
+    // Give up waiting after this long and drop the new bytes instead, the
+    // producer is the audio render thread and must not stall forever
+    private static final long BLOCK_TIMEOUT_NANOS = 200000000L;
+
+    private final int mCapacity;
+    private final int mMask;
+    private final int mFrameSize;
+    private final int mOverflowPolicy;
+    // views on the same storage, each one only touched by its own side
+    private final ByteBuffer mProducerView;
+    private final ByteBuffer mConsumerView;
+
+    // total bytes ever written, only advanced by the producer
+    private volatile long mWriteIndex;
+    // total bytes ever consumed or dropped
+    private final AtomicLong mReadIndex = new AtomicLong();
+    private volatile boolean mClosed;
+
+    // writes which did not fit without dropping or waiting
+    private final AtomicLong mOverflows = new AtomicLong();
+    // bytes thrown away by a drop policy
+    private final AtomicLong mDroppedBytes = new AtomicLong();
+    // reads which found the ring empty
+    private final AtomicLong mUnderflows = new AtomicLong();
+
+    /**
+     * @param minCapacity Minimum capacity in bytes, rounded up to a power of two
+     * @param frameSize Size of one PCM frame, reads and drops keep this alignment
+     * @param overflowPolicy One of the OVERFLOW_* constants
+     */
+    PcmRingBuffer(int minCapacity, int frameSize, int overflowPolicy) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, frameSize));
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        ByteBuffer storage = ByteBuffer.allocateDirect(capacity);
+        mProducerView = storage.duplicate();
+        mConsumerView = storage.duplicate();
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mFrameSize = frameSize;
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Number of bytes ready to be read
+     */
+    int available() {
+        return (int) (mWriteIndex - mReadIndex.get());
+    }
+
+    /**
+     * Producer side: queue PCM bytes
+     *
+     * @param src The source array
+     * @param offset Offset of the first byte in src
+     * @param length Number of bytes to queue
+     *
+     * @return The number of bytes actually queued
+     */
+    int write(byte[] src, int offset, int length) {
+        if (length > mCapacity) {
+            // Keep the most recent part, nothing else could ever fit
+            int skip = length - mCapacity;
+            mOverflows.incrementAndGet();
+            mDroppedBytes.addAndGet(skip);
+            offset += skip;
+            length = mCapacity;
+        }
+
+        final long w = mWriteIndex;
+        length = reserve(w, length);
+        if (length <= 0) {
+            return 0;
+        }
+
+        int pos = (int) (w & mMask);
+        int first = Math.min(length, mCapacity - pos);
+        mProducerView.limit(mCapacity).position(pos);
+        mProducerView.put(src, offset, first);
+        if (first < length) {
+            mProducerView.position(0);
+            mProducerView.put(src, offset + first, length - first);
+        }
+        PcmCopyStats.onCopy(length);
+        // publish the bytes to the consumer
+        mWriteIndex = w + length;
+        return length;
+    }
+
+    /**
+     * Producer side: queue the remaining PCM bytes of a buffer
+     *
+     * @param src The source, read from its position to its limit. Its
+     *        position moves past the bytes consumed, dropped ones included.
+     *
+     * @return The number of bytes actually queued
+     */
+    int write(ByteBuffer src) {
+        int length = src.remaining();
+        if (length > mCapacity) {
+            // Keep the most recent part, nothing else could ever fit
+            int skip = length - mCapacity;
+            mOverflows.incrementAndGet();
+            mDroppedBytes.addAndGet(skip);
+            src.position(src.position() + skip);
+            length = mCapacity;
+        }
+
+        final long w = mWriteIndex;
+        length = reserve(w, length);
+        if (length <= 0) {
+            return 0;
+        }
+
+        final int limit = src.limit();
+        int pos = (int) (w & mMask);
+        int first = Math.min(length, mCapacity - pos);
+        mProducerView.limit(mCapacity).position(pos);
+        src.limit(src.position() + first);
+        mProducerView.put(src);
+        if (first < length) {
+            mProducerView.position(0);
+            src.limit(src.position() + length - first);
+            mProducerView.put(src);
+        }
+        src.limit(limit);
+        PcmCopyStats.onCopy(length);
+        // publish the bytes to the consumer
+        mWriteIndex = w + length;
+        return length;
+    }
+
+    /**
+     * Producer side: reserve room so PCM can be produced straight into the
+     * ring. Must be followed by {@link #endWrite}.
+     *
+     * @param length The number of bytes wanted
+     *
+     * @return A view positioned at the reserved region. It can hold less than
+     *         length bytes when the region would wrap around, or nothing when
+     *         the bytes have to be dropped.
+     */
+    ByteBuffer beginWrite(int length) {
+        final long w = mWriteIndex;
+        int pos = (int) (w & mMask);
+        length = Math.min(length, mCapacity - pos);
+        length = reserve(w, length - length % mFrameSize);
+        mProducerView.limit(pos + Math.max(length, 0)).position(pos);
+        return mProducerView;
+    }
+
+    /**
+     * Producer side: publish the bytes written since {@link #beginWrite}
+     *
+     * @param length The number of bytes actually written
+     */
+    void endWrite(int length) {
+        if (length > 0) {
+            mWriteIndex += length;
+        }
+    }
+
+    /**
+     * Make sure the ring has room for length more bytes
+     *
+     * @return How many of the bytes can be written
+     */
+    private int reserve(long w, int length) {
+        int free = mCapacity - (int) (w - mReadIndex.get());
+        if (free >= length) {
+            return length;
+        }
+
+        mOverflows.incrementAndGet();
+        switch (mOverflowPolicy) {
+            case OVERFLOW_DROP_NEWEST:
+                mDroppedBytes.addAndGet(length - free);
+                return free - free % mFrameSize;
+            case OVERFLOW_DROP_OLDEST:
+                dropOldest(w, length);
+                return length;
+            case OVERFLOW_BLOCK:
+            default:
+                final long deadline = System.nanoTime() + BLOCK_TIMEOUT_NANOS;
+                while (free < length) {
+                    if (mClosed || Thread.currentThread().isInterrupted()
+                            || System.nanoTime() - deadline > 0) {
+                        mDroppedBytes.addAndGet(length);
+                        return 0;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    free = mCapacity - (int) (w - mReadIndex.get());
+                }
+                return length;
+        }
+    }
+
+    private void dropOldest(long w, int length) {
+        while (true) {
+            final long r = mReadIndex.get();
+            int needed = length - (mCapacity - (int) (w - r));
+            if (needed <= 0) {
+                // the consumer made room in the meantime
+                return;
+            }
+            // round up to whole frames so the consumer stays frame aligned
+            int remainder = needed % mFrameSize;
+            if (remainder != 0) {
+                needed += mFrameSize - remainder;
+            }
+            needed = Math.min(needed, (int) (w - r));
+            if (mReadIndex.compareAndSet(r, r + needed)) {
+                mDroppedBytes.addAndGet(needed);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Consumer side: move as many whole frames as fit into dst with bulk
+     * copies
+     *
+     * @param dst The destination, filled from its current position
+     *
+     * @return The number of bytes read, 0 if the ring is empty
+     */
+    int read(ByteBuffer dst) {
+        final int start = dst.position();
+        while (true) {
+            final long r = mReadIndex.get();
+            int avail = (int) (mWriteIndex - r);
+            if (avail <= 0) {
+                mUnderflows.incrementAndGet();
+                return 0;
+            }
+            int n = Math.min(avail, dst.remaining());
+            n -= n % mFrameSize;
+            if (n <= 0) {
+                return 0;
+            }
+
+            int pos = (int) (r & mMask);
+            int first = Math.min(n, mCapacity - pos);
+            mConsumerView.limit(pos + first).position(pos);
+            dst.put(mConsumerView);
+            if (first < n) {
+                mConsumerView.limit(n - first).position(0);
+                dst.put(mConsumerView);
+            }
+            if (mReadIndex.compareAndSet(r, r + n)) {
+                PcmCopyStats.onCopy(n);
+                return n;
+            }
+            // The producer dropped what we were copying, start over
+            dst.position(start);
+        }
+    }
+
+    /**
+     * Wake up and fail a producer blocked on a full ring
+     */
+    void close() {
+        mClosed = true;
+    }
+
+    long getOverflowCount() {
+        return mOverflows.get();
+    }
+
+    long getDroppedBytes() {
+        return mDroppedBytes.get();
+    }
+
+    long getUnderflowCount() {
+        return mUnderflows.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PcmRingBuffer{capacity=" + mCapacity + ", available=" + available()
+                + ", overflows=" + mOverflows.get() + ", droppedBytes=" + mDroppedBytes.get()
+                + ", underflows=" + mUnderflows.get() + "}";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Times the stages of a power up, from the request to the first audible
+ * frame. Stages of the critical path are marked in order; stages run in
+ * parallel with it are reported with their own duration.
+ */
+class PowerUpTrace {
+    private static final String TAG = "PowerUpTrace";
+    private static final FmMetrics.Histogram sTimeToFirstAudio =
+            FmMetrics.histogram("powerUp.firstAudio");
+
+    private final long mStart;
+    private long mLast;
+    private final StringBuilder mStages = new StringBuilder();
+    private final StringBuilder mParallelStages = new StringBuilder();
+    private long mTotal = -1;
+
+    /**
+     * @param start The {@link SystemClock#uptimeMillis} of the request
+     */
+    PowerUpTrace(long start) {
+        mStart = start;
+        mLast = start;
+    }
+
+    /**
+     * A stage of the critical path ended
+     *
+     * @param stage The stage name
+     */
+    synchronized void mark(String stage) {
+        if (mTotal >= 0) {
+            // the first frame can come before the last stage is marked
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        append(mStages, stage, now - mLast);
+        mLast = now;
+    }
+
+    /**
+     * A stage run off the critical path ended
+     *
+     * @param stage The stage name
+     * @param duration How long the stage took in ms
+     */
+    synchronized void markParallel(String stage, long duration) {
+        append(mParallelStages, stage, duration);
+    }
+
+    /**
+     * The first frame was played, the trace is complete
+     */
+    synchronized void finish() {
+        mark("first frame");
+        mTotal = mLast - mStart;
+        sTimeToFirstAudio.record(mTotal, true);
+        Log.i(TAG, toString());
+    }
+
+    private static void append(StringBuilder stages, String stage, long duration) {
+        if (stages.length() > 0) {
+            stages.append(", ");
+        }
+        stages.append(stage).append('=').append(duration).append("ms");
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "time to first audio " + (mTotal < 0 ? "pending" : mTotal + "ms")
+                + " [" + mStages + "] in parallel [" + mParallelStages + "]";
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.fmradio.FmStation.RdsHistory;
+import com.android.fmradio.FmStation.Station;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the latest PS and RT of the stations in memory and writes them to
+ * the database only when they changed, in batches. Every change is also
+ * appended to the RDS history ring of its station.
+ */
+class RdsPersister extends HandlerThread implements Handler.Callback {
+    private static final String TAG = "RdsPersister";
+
+    private static final int MSG_FLUSH = 1;
+    private static final int MSG_FLUSH_AND_CLEAR = 2;
+    // Delay between the first dirty value and the write
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    /**
+     * RDS values of one station
+     */
+    private static class Entry {
+        String mPs;
+        String mRt;
+        boolean mPsDirty;
+        boolean mRtDirty;
+    }
+
+    /**
+     * A PS or RT change waiting to be written to the history
+     */
+    private static class HistoryEntry {
+        final int mStation;
+        final int mType;
+        final String mText;
+        final long mTime;
+
+        HistoryEntry(int station, int type, String text, long time) {
+            mStation = station;
+            mType = type;
+            mText = text;
+            mTime = time;
+        }
+    }
+
+    private final Context mContext;
+    // station -> entry, guarded by itself
+    private final SparseArray<Entry> mEntries = new SparseArray<Entry>();
+    private final Handler mHandler;
+    // Values per ring of the history
+    private final int mHistorySize;
+    // changes not written yet, guarded by mEntries
+    private ArrayList<HistoryEntry> mPendingHistory = new ArrayList<HistoryEntry>();
+    // station -> last PS and RT appended, kept across station changes so a
+    // retune does not append the same values again, guarded by mEntries
+    private final SparseArray<String[]> mLastHistory = new SparseArray<String[]>();
+    // station -> next sequence per type, only used by the persister thread
+    private final SparseArray<long[]> mNextSequences = new SparseArray<long[]>();
+
+    // Statistics
+    private volatile long mUpdates = 0;
+    private volatile long mSkipped = 0;
+    private volatile long mWrites = 0;
+    private volatile long mFlushes = 0;
+    private volatile long mHistoryWrites = 0;
+
+    RdsPersister(Context context) {
+        super("FmRdsPersister");
+        mContext = context;
+        mHistorySize = context.getResources().getInteger(R.integer.config_rdsHistorySize);
+        start();
+        mHandler = new Handler(getLooper(), this);
+    }
+
+    /**
+     * Remember the PS of a station, it is written later if it changed
+     *
+     * @param station The station
+     * @param ps The program service
+     */
+    void setProgramService(int station, String ps) {
+        synchronized (mEntries) {
+            Entry entry = getEntryLocked(station);
+            mUpdates++;
+            if (TextUtils.equals(entry.mPs, ps)) {
+                mSkipped++;
+                return;
+            }
+            entry.mPs = ps;
+            entry.mPsDirty = true;
+            appendHistoryLocked(station, RdsHistory.TYPE_PROGRAM_SERVICE, ps);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Remember the RT of a station, it is written later if it changed
+     *
+     * @param station The station
+     * @param rt The radio text
+     */
+    void setRadioText(int station, String rt) {
+        synchronized (mEntries) {
+            Entry entry = getEntryLocked(station);
+            mUpdates++;
+            if (TextUtils.equals(entry.mRt, rt)) {
+                mSkipped++;
+                return;
+            }
+            entry.mRt = rt;
+            entry.mRtDirty = true;
+            appendHistoryLocked(station, RdsHistory.TYPE_RADIO_TEXT, rt);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Write the pending values now and forget the cached ones, the rows may
+     * change behind our back while another station is playing
+     */
+    void onStationChanged() {
+        mHandler.removeMessages(MSG_FLUSH);
+        mHandler.sendEmptyMessage(MSG_FLUSH_AND_CLEAR);
+    }
+
+    /**
+     * Write the pending values and stop the thread
+     */
+    void flushAndQuit() {
+        onStationChanged();
+        quitSafely();
+    }
+
+    /**
+     * @return The latest PS of the station, null if not known
+     */
+    String getProgramService(int station) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(station);
+            return entry == null ? null : entry.mPs;
+        }
+    }
+
+    /**
+     * @return The latest RT of the station, null if not known
+     */
+    String getRadioText(int station) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(station);
+            return entry == null ? null : entry.mRt;
+        }
+    }
+
+    private Entry getEntryLocked(int station) {
+        Entry entry = mEntries.get(station);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(station, entry);
+        }
+        return entry;
+    }
+
+    private void appendHistoryLocked(int station, int type, String text) {
+        if (TextUtils.isEmpty(text)) {
+            return;
+        }
+        String[] last = mLastHistory.get(station);
+        if (last == null) {
+            last = new String[2];
+            mLastHistory.put(station, last);
+        }
+        if (text.equals(last[type])) {
+            return;
+        }
+        last[type] = text;
+        mPendingHistory.add(new HistoryEntry(station, type, text, System.currentTimeMillis()));
+    }
+
+    private void scheduleFlush() {
+        if (!mHandler.hasMessages(MSG_FLUSH)) {
+            mHandler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY_MS);
+        }
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_FLUSH:
+                flush(false);
+                return true;
+            case MSG_FLUSH_AND_CLEAR:
+                flush(true);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Upsert every dirty entry, all of them in one transaction
+     *
+     * @param clear Whether to drop the cache afterwards
+     */
+    private void flush(boolean clear) {
+        SparseArray<ContentValues> pending = new SparseArray<ContentValues>();
+        ArrayList<HistoryEntry> history = null;
+        synchronized (mEntries) {
+            if (!mPendingHistory.isEmpty()) {
+                history = mPendingHistory;
+                mPendingHistory = new ArrayList<HistoryEntry>();
+            }
+            for (int i = 0; i < mEntries.size(); i++) {
+                Entry entry = mEntries.valueAt(i);
+                if (!entry.mPsDirty && !entry.mRtDirty) {
+                    continue;
+                }
+                ContentValues values = new ContentValues(3);
+                if (entry.mPsDirty) {
+                    values.put(Station.PROGRAM_SERVICE, entry.mPs);
+                    entry.mPsDirty = false;
+                }
+                if (entry.mRtDirty) {
+                    values.put(Station.RADIO_TEXT, entry.mRt);
+                    entry.mRtDirty = false;
+                }
+                pending.put(mEntries.keyAt(i), values);
+            }
+            if (clear) {
+                mEntries.clear();
+            }
+        }
+
+        if (pending.size() == 1) {
+            FmStation.upsertStationToDb(mContext, pending.keyAt(0), pending.valueAt(0));
+        } else if (pending.size() > 1) {
+            FmStation.upsertStationsToDb(mContext, pending);
+        }
+        mWrites += pending.size();
+        mFlushes++;
+        if (history != null) {
+            writeHistory(history);
+        }
+        Log.d(TAG, "flush, wrote " + pending.size() + " stations, "
+                + (history == null ? 0 : history.size()) + " history values");
+    }
+
+    /**
+     * Write the changes to their history ring, each one in the slot after the
+     * newest value of its ring
+     */
+    private void writeHistory(ArrayList<HistoryEntry> history) {
+        ContentValues[] rows = new ContentValues[history.size()];
+        for (int i = 0; i < rows.length; i++) {
+            HistoryEntry entry = history.get(i);
+            long[] next = mNextSequences.get(entry.mStation);
+            if (next == null) {
+                next = new long[] {
+                    FmStation.getLastRdsHistorySequence(mContext, entry.mStation,
+                            RdsHistory.TYPE_PROGRAM_SERVICE) + 1,
+                    FmStation.getLastRdsHistorySequence(mContext, entry.mStation,
+                            RdsHistory.TYPE_RADIO_TEXT) + 1
+                };
+                mNextSequences.put(entry.mStation, next);
+            }
+            long sequence = next[entry.mType]++;
+            ContentValues values = new ContentValues(6);
+            values.put(RdsHistory.FREQUENCY, entry.mStation);
+            values.put(RdsHistory.TYPE, entry.mType);
+            values.put(RdsHistory.SEQUENCE, sequence);
+            values.put(RdsHistory.SLOT, (int) (sequence % mHistorySize));
+            values.put(RdsHistory.TEXT, entry.mText);
+            values.put(RdsHistory.TIME, entry.mTime);
+            rows[i] = values;
+        }
+        FmStation.appendRdsHistory(mContext, rows);
+        mHistoryWrites += rows.length;
+    }
+
+    @Override
+    public String toString() {
+        return "RdsPersister{updates=" + mUpdates + ", unchanged=" + mSkipped
+                + ", writes=" + mWrites + ", flushes=" + mFlushes
+                + ", historyWrites=" + mHistoryWrites + "}";
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Reads RDS events from the driver with an adaptive cadence: fast right
+ * after a tune, backing off exponentially while the RDS data stays the
+ * same, and not at all while nobody consumes the data.
+ */
+class RdsReader extends Thread {
+    private static final String TAG = "RdsReader";
+
+    // Poll period right after a tune, until the station is identified
+    private static final long FAST_INTERVAL_MS = 100;
+    // How long to stay in fast mode after a tune
+    private static final long FAST_WINDOW_MS = 4000;
+    // Poll period after the RDS data changed
+    private static final long BASE_INTERVAL_MS = 500;
+    // Upper bound of the back off
+    private static final long MAX_INTERVAL_MS = 4000;
+    private static final long ONE_MINUTE_MS = 60 * 1000;
+
+    /**
+     * Handles the events read from the driver, called on the reader thread
+     */
+    interface Callback {
+        /**
+         * @param events The RDS event bits
+         *
+         * @return true if the RDS data visible to the user changed
+         */
+        boolean onRdsEvents(int events);
+    }
+
+    private final FmTuner mTuner;
+    private final Callback mCallback;
+    private final Object mLock = new Object();
+    private boolean mExit = false;
+    private boolean mActive = true;
+    private long mInterval = FAST_INTERVAL_MS;
+    private long mFastUntil = 0;
+    // Last tune or resume, no event read later can be older
+    private long mRestartTime = 0;
+
+    // Statistics, written by the reader thread only
+    private volatile long mWakeups = 0;
+    private volatile long mWakeupsLastMinute = 0;
+    private long mWakeupsThisMinute = 0;
+    private long mMinuteStart = SystemClock.elapsedRealtime();
+    private volatile long mLatencyCount = 0;
+    private volatile long mLatencySumMs = 0;
+    private volatile long mLatencyMaxMs = 0;
+    // Reader thread only: when the previous poll read the driver, and the
+    // earliest an event read by the current poll may have arrived
+    private long mLastPollTime = SystemClock.elapsedRealtime();
+    private long mEventWindowStart = mLastPollTime;
+
+    RdsReader(FmTuner tuner, Callback callback) {
+        super("FmRdsReader");
+        mTuner = tuner;
+        mCallback = callback;
+    }
+
+    /**
+     * Poll fast again, the station just changed
+     */
+    void onTuned() {
+        synchronized (mLock) {
+            mInterval = FAST_INTERVAL_MS;
+            mRestartTime = SystemClock.elapsedRealtime();
+            mFastUntil = mRestartTime + FAST_WINDOW_MS;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Suspend or resume polling depending on whether anyone consumes RDS data
+     *
+     * @param active true if the UI or the notification needs RDS updates
+     */
+    void setActive(boolean active) {
+        synchronized (mLock) {
+            if (mActive == active) {
+                return;
+            }
+            Log.d(TAG, "setActive " + active);
+            mActive = active;
+            if (active) {
+                // the data may be stale, catch up quickly
+                mInterval = FAST_INTERVAL_MS;
+                mRestartTime = SystemClock.elapsedRealtime();
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the thread, it exits at its next wake up
+     */
+    void quit() {
+        synchronized (mLock) {
+            mExit = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Account the time between an event reaching the driver and its delivery
+     * to the UI. The driver does not tell when the event came, so the worst
+     * case is taken: right after the previous poll, or the last tune or
+     * resume if later. Called from the callback, on the reader thread.
+     */
+    void onEventDelivered() {
+        long latency = SystemClock.elapsedRealtime() - mEventWindowStart;
+        mLatencyCount++;
+        mLatencySumMs += latency;
+        if (latency > mLatencyMaxMs) {
+            mLatencyMaxMs = latency;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (mLock) {
+                try {
+                    while (!mExit && !mActive) {
+                        mLock.wait();
+                    }
+                    if (mExit) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            countWakeup();
+            long pollTime = SystemClock.elapsedRealtime();
+            synchronized (mLock) {
+                mEventWindowStart = Math.max(mLastPollTime, mRestartTime);
+            }
+            mLastPollTime = pollTime;
+            int events = mTuner.readRds();
+            boolean changed = false;
+            if (events != 0) {
+                changed = mCallback.onRdsEvents(events);
+            }
+
+            synchronized (mLock) {
+                long now = SystemClock.elapsedRealtime();
+                if (now < mFastUntil) {
+                    mInterval = FAST_INTERVAL_MS;
+                } else if (changed) {
+                    mInterval = BASE_INTERVAL_MS;
+                } else {
+                    mInterval = Math.min(Math.max(mInterval, BASE_INTERVAL_MS) * 2,
+                            MAX_INTERVAL_MS);
+                }
+                try {
+                    if (!mExit) {
+                        mLock.wait(mInterval);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        Log.d(TAG, "exit");
+    }
+
+    private void countWakeup() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - mMinuteStart >= ONE_MINUTE_MS) {
+            // a suspended minute counts as no wake ups at all
+            mWakeupsLastMinute = now - mMinuteStart >= 2 * ONE_MINUTE_MS
+                    ? 0 : mWakeupsThisMinute;
+            mWakeupsThisMinute = 0;
+            mMinuteStart = now;
+        }
+        mWakeupsThisMinute++;
+        mWakeups++;
+    }
+
+    @Override
+    public String toString() {
+        long count = mLatencyCount;
+        // worst case, including the wait in the driver until the next poll
+        return "RdsReader{active=" + mActive + ", interval=" + mInterval + "ms"
+                + ", wakeups=" + mWakeups + ", wakeups/min=" + mWakeupsLastMinute
+                + ", event-to-UI latency avg="
+                + (count == 0 ? 0 : mLatencySumMs / count) + "ms max=" + mLatencyMaxMs + "ms}";
+    }
+}
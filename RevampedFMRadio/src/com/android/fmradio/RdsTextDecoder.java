@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.util.SparseArray;
+
+/**
+ * Turns the PS or RT bytes of the driver into text with the RDS basic
+ * character set. Bytes equal to the previous ones are not decoded again,
+ * and the few PS values a station cycles through can be kept so each of
+ * them is decoded once.
+ *
+ * Not thread safe, meant to be used by the RDS reader thread only.
+ */
+class RdsTextDecoder {
+    // Ends a radio text shorter than its buffer
+    private static final int END_OF_TEXT = 0x0d;
+    // PS values kept per station
+    private static final int INTERN_SIZE = 8;
+
+    // EN 50067 annex E, basic character set. Control codes are shown as spaces.
+    private static final char[] CHARACTERS = (
+            "                                "
+            + " !\"#\u00a4%&'()*+,-./0123456789:;<=>?"
+            + "@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]\u2015_"
+            + "\u2016abcdefghijklmnopqrstuvwxyz{|}\u00af "
+            + "\u00e1\u00e0\u00e9\u00e8\u00ed\u00ec\u00f3\u00f2"
+            + "\u00fa\u00f9\u00d1\u00c7\u015e\u03b2\u00a1\u0132"
+            + "\u00e2\u00e4\u00ea\u00eb\u00ee\u00ef\u00f4\u00f6"
+            + "\u00fb\u00fc\u00f1\u00e7\u015f\u011f\u0131\u0133"
+            + "\u00aa\u03b1\u00a9\u2030\u011e\u011b\u0148\u0151"
+            + "\u03c0\u20ac\u00a3$\u2190\u2191\u2192\u2193"
+            + "\u00ba\u00b9\u00b2\u00b3\u00b1\u0130\u0144\u0171"
+            + "\u00b5\u00bf\u00f7\u00b0\u00bc\u00bd\u00be\u00a7"
+            + "\u00c1\u00c0\u00c9\u00c8\u00cd\u00cc\u00d3\u00d2"
+            + "\u00da\u00d9\u0158\u010c\u0160\u017d\u0110\u013f"
+            + "\u00c2\u00c4\u00ca\u00cb\u00ce\u00cf\u00d4\u00d6"
+            + "\u00db\u00dc\u0159\u010d\u0161\u017e\u0111\u0140"
+            + "\u00c3\u00c5\u00c6\u0152\u0177\u00dd\u00d5\u00d8"
+            + "\u00de\u014a\u0154\u0106\u015a\u0179\u0166\u00f0"
+            + "\u00e3\u00e5\u00e6\u0153\u0175\u00fd\u00f5\u00f8"
+            + "\u00fe\u014b\u0155\u0107\u015b\u017a\u0167 ").toCharArray();
+
+    private static final FmMetrics.Counter sDecoded = FmMetrics.counter("rds.decoded");
+    private static final FmMetrics.Counter sUnchanged = FmMetrics.counter("rds.unchanged");
+    private static final FmMetrics.Counter sInternHits = FmMetrics.counter("rds.internHits");
+
+    private final boolean mIntern;
+    // Values seen per station, only if mIntern
+    private final SparseArray<Interned> mInterned = new SparseArray<Interned>();
+    private int mLastStation = -1;
+    private byte[] mLastBytes = new byte[0];
+    private int mLastLength = 0;
+    private String mLastText = "";
+    private char[] mChars = new char[0];
+
+    /**
+     * The last values of a station, replaced oldest first
+     */
+    private static class Interned {
+        final byte[][] mBytes = new byte[INTERN_SIZE][];
+        final String[] mTexts = new String[INTERN_SIZE];
+        int mNext = 0;
+
+        String find(byte[] bytes) {
+            for (int i = 0; i < INTERN_SIZE; i++) {
+                if (mBytes[i] != null && sameBytes(mBytes[i], mBytes[i].length, bytes)) {
+                    return mTexts[i];
+                }
+            }
+            return null;
+        }
+
+        void add(byte[] bytes, String text) {
+            mBytes[mNext] = bytes.clone();
+            mTexts[mNext] = text;
+            mNext = (mNext + 1) % INTERN_SIZE;
+        }
+    }
+
+    /**
+     * @param intern Whether to keep the last values of every station, for
+     *        PS which rotates through a few values
+     */
+    RdsTextDecoder(boolean intern) {
+        mIntern = intern;
+    }
+
+    /**
+     * Decode the bytes read for a station
+     *
+     * @param station The station the bytes were received on
+     * @param bytes The bytes, padded with spaces or zeros
+     *
+     * @return The text without padding, the same instance as long as the
+     *         bytes do not change
+     */
+    String decode(int station, byte[] bytes) {
+        if (station == mLastStation && sameBytes(mLastBytes, mLastLength, bytes)) {
+            sUnchanged.increment();
+            return mLastText;
+        }
+        String text = null;
+        Interned interned = null;
+        if (mIntern) {
+            interned = mInterned.get(station);
+            if (interned == null) {
+                interned = new Interned();
+                mInterned.put(station, interned);
+            }
+            text = interned.find(bytes);
+        }
+        if (text != null) {
+            sInternHits.increment();
+        } else {
+            text = decodeText(bytes);
+            sDecoded.increment();
+            if (interned != null) {
+                interned.add(bytes, text);
+            }
+        }
+        mLastStation = station;
+        if (mLastBytes.length < bytes.length) {
+            mLastBytes = new byte[bytes.length];
+        }
+        System.arraycopy(bytes, 0, mLastBytes, 0, bytes.length);
+        mLastLength = bytes.length;
+        mLastText = text;
+        return text;
+    }
+
+    private String decodeText(byte[] bytes) {
+        if (mChars.length < bytes.length) {
+            mChars = new char[bytes.length];
+        }
+        int length = 0;
+        int printed = 0;
+        for (byte b : bytes) {
+            if (b == END_OF_TEXT || b == 0) {
+                break;
+            }
+            char c = CHARACTERS[b & 0xff];
+            if (c == ' ' && length == 0) {
+                // leading padding
+                continue;
+            }
+            mChars[length++] = c;
+            if (c != ' ') {
+                printed = length;
+            }
+        }
+        return printed == 0 ? "" : new String(mChars, 0, printed);
+    }
+
+    private static boolean sameBytes(byte[] a, int aLength, byte[] b) {
+        if (aLength != b.length) {
+            return false;
+        }
+        for (int i = 0; i < aLength; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.media.AudioTrack;
+import android.os.SystemClock;
+
+/**
+ * Sizes the chunk copied by the render loop and the AudioTrack buffer.
+ * Both grow when the track underruns and shrink back to the floor of the
+ * selected mode once playback has been stable for a while.
+ *
+ * Sizes only change from the render thread, other threads read them.
+ */
+class RenderBufferController {
+    // Default sizes
+    static final int MODE_BALANCED = 0;
+    // Small buffers and a fast track, for the lowest latency
+    static final int MODE_LOW_LATENCY = 1;
+    // Large buffers and fewer wakeups, for long listening on battery
+    static final int MODE_POWER_SAVING = 2;
+
+    // 16 bit stereo
+    private static final int FRAME_SIZE = 4;
+    // Largest chunk, relative to the AudioRecord minimum buffer
+    private static final int MAX_CHUNK_FACTOR = 4;
+    // Track buffer capacity, relative to the AudioTrack minimum buffer
+    private static final int TRACK_CAPACITY_FACTOR = 8;
+    // Shrink after this long without an underrun
+    private static final long SHRINK_AFTER_MS = 30000;
+
+    private final int mRecordMinBytes;
+    private final int mTrackMinFrames;
+    private volatile int mMode;
+    private volatile int mChunkSize;
+    private volatile int mTrackFrames;
+    private int mLastUnderrunCount = 0;
+    private long mStableSince = SystemClock.uptimeMillis();
+
+    // Statistics
+    private volatile long mChunks = 0;
+    private volatile long mReadBytes = 0;
+    private volatile int mUnderruns = 0;
+    private volatile int mGrows = 0;
+    private volatile int mShrinks = 0;
+
+    /**
+     * @param recordMinBytes The AudioRecord minimum buffer size
+     * @param trackMinBytes The AudioTrack minimum buffer size
+     * @param mode One of the MODE_ constants
+     */
+    RenderBufferController(int recordMinBytes, int trackMinBytes, int mode) {
+        mRecordMinBytes = recordMinBytes;
+        mTrackMinFrames = trackMinBytes / FRAME_SIZE;
+        setMode(mode);
+    }
+
+    /**
+     * Select a mode, the sizes restart from its floor. The performance
+     * mode applies to the next AudioTrack.
+     *
+     * @param mode One of the MODE_ constants
+     */
+    synchronized void setMode(int mode) {
+        mMode = mode;
+        mChunkSize = getMinChunkSize();
+        mTrackFrames = getMinTrackFrames();
+        mLastUnderrunCount = 0;
+        mStableSince = SystemClock.uptimeMillis();
+    }
+
+    int getMode() {
+        return mMode;
+    }
+
+    /**
+     * @return The AudioTrack performance mode of the selected mode
+     */
+    int getPerformanceMode() {
+        switch (mMode) {
+            case MODE_LOW_LATENCY:
+                return AudioTrack.PERFORMANCE_MODE_LOW_LATENCY;
+            case MODE_POWER_SAVING:
+                return AudioTrack.PERFORMANCE_MODE_POWER_SAVING;
+            default:
+                return AudioTrack.PERFORMANCE_MODE_NONE;
+        }
+    }
+
+    /**
+     * @return The largest chunk ever requested, buffers holding a chunk
+     *         must be this large
+     */
+    int getMaxChunkSize() {
+        return mRecordMinBytes * MAX_CHUNK_FACTOR;
+    }
+
+    /**
+     * @return The AudioRecord buffer size, room for two of the largest chunks
+     */
+    int getRecordBufferSize() {
+        return getMaxChunkSize() * 2;
+    }
+
+    /**
+     * @return The AudioTrack buffer capacity
+     */
+    int getTrackCapacityBytes() {
+        return mTrackMinFrames * TRACK_CAPACITY_FACTOR * FRAME_SIZE;
+    }
+
+    /**
+     * @return The number of bytes to copy per render loop
+     */
+    int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * @return The AudioTrack buffer size to use, in frames
+     */
+    int getTrackBufferFrames() {
+        return mTrackFrames;
+    }
+
+    private int getMinChunkSize() {
+        switch (mMode) {
+            case MODE_LOW_LATENCY:
+                return Math.max(FRAME_SIZE, mRecordMinBytes / 2 / FRAME_SIZE * FRAME_SIZE);
+            case MODE_POWER_SAVING:
+                return getMaxChunkSize();
+            default:
+                return mRecordMinBytes;
+        }
+    }
+
+    private int getMinTrackFrames() {
+        switch (mMode) {
+            case MODE_LOW_LATENCY:
+                return mTrackMinFrames;
+            case MODE_POWER_SAVING:
+                return mTrackMinFrames * TRACK_CAPACITY_FACTOR;
+            default:
+                return mTrackMinFrames * 2;
+        }
+    }
+
+    /**
+     * A chunk was played, adapt the sizes. Called from the render thread.
+     *
+     * @param readSize The bytes read from AudioRecord
+     * @param underrunCount {@link AudioTrack#getUnderrunCount} of the track
+     *
+     * @return true if the track buffer size changed and must be applied
+     */
+    synchronized boolean onChunkRendered(int readSize, int underrunCount) {
+        mChunks++;
+        mReadBytes += readSize;
+        long now = SystemClock.uptimeMillis();
+        if (underrunCount < mLastUnderrunCount) {
+            // a new track, its count restarted
+            mLastUnderrunCount = underrunCount;
+        }
+        if (underrunCount > mLastUnderrunCount) {
+            mUnderruns += underrunCount - mLastUnderrunCount;
+            mLastUnderrunCount = underrunCount;
+            mStableSince = now;
+            int chunkSize = Math.min(mChunkSize * 2, getMaxChunkSize());
+            int trackFrames = Math.min(mTrackFrames * 2, mTrackMinFrames * TRACK_CAPACITY_FACTOR);
+            return resize(chunkSize, trackFrames, true);
+        }
+        if (now - mStableSince >= SHRINK_AFTER_MS) {
+            mStableSince = now;
+            int chunkSize = Math.max(mChunkSize / 2 / FRAME_SIZE * FRAME_SIZE,
+                    getMinChunkSize());
+            int trackFrames = Math.max(mTrackFrames / 2, getMinTrackFrames());
+            return resize(chunkSize, trackFrames, false);
+        }
+        return false;
+    }
+
+    private boolean resize(int chunkSize, int trackFrames, boolean grow) {
+        if (chunkSize == mChunkSize && trackFrames == mTrackFrames) {
+            return false;
+        }
+        if (grow) {
+            mGrows++;
+        } else {
+            mShrinks++;
+        }
+        mChunkSize = chunkSize;
+        boolean trackChanged = trackFrames != mTrackFrames;
+        mTrackFrames = trackFrames;
+        return trackChanged;
+    }
+
+    @Override
+    public String toString() {
+        long chunks = mChunks;
+        return "RenderBufferController{mode=" + mMode + ", chunk=" + mChunkSize
+                + ", trackFrames=" + mTrackFrames + ", avgRead="
+                + (chunks > 0 ? mReadBytes / chunks : 0) + ", underruns=" + mUnderruns
+                + ", grows=" + mGrows + ", shrinks=" + mShrinks + "}";
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scan results of the last visited areas, keyed by coarse location cells
+ * and evicted in least recently used order. Kept in shared preferences.
+ */
+class ScanResultCache {
+    private static final String TAG = "ScanResultCache";
+
+    private static final String FM_SCAN_RESULT_CACHE = "fm_scan_result_cache";
+    // Number of areas remembered
+    private static final int MAX_CELLS = 8;
+    // Results older than this are scanned again
+    private static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    // Cell size in degrees, about 111 km of latitude, in line with
+    // FmUtils.LOCATION_DISTANCE_EXCEED
+    private static final double CELL_DEGREES = 1.0;
+
+    /**
+     * Scan result of one cell
+     */
+    private static class Entry {
+        final long mTime;
+        final int[] mStations;
+
+        Entry(long time, int[] stations) {
+            mTime = time;
+            mStations = stations;
+        }
+    }
+
+    private final Context mContext;
+    // cell -> result, in access order, guarded by this
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_CELLS + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_CELLS;
+                }
+            };
+    private boolean mLoaded = false;
+
+    ScanResultCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Compute the cell of a location
+     *
+     * @param latitude The latitude
+     * @param longitude The longitude
+     *
+     * @return The cell key
+     */
+    static String computeCell(double latitude, double longitude) {
+        return (int) Math.floor(latitude / CELL_DEGREES) + ":"
+                + (int) Math.floor(longitude / CELL_DEGREES);
+    }
+
+    /**
+     * Get the stations last scanned in a cell
+     *
+     * @param cell The cell key
+     *
+     * @return The stations, null if the cell is unknown or too old
+     */
+    synchronized int[] get(String cell) {
+        ensureLoadedLocked();
+        Entry entry = mEntries.get(cell);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.mTime > MAX_AGE_MS) {
+            mEntries.remove(cell);
+            saveLocked();
+            return null;
+        }
+        // the access order changed
+        saveLocked();
+        return entry.mStations;
+    }
+
+    /**
+     * Remember the stations scanned in a cell
+     *
+     * @param cell The cell key
+     * @param stations The stations
+     */
+    synchronized void put(String cell, int[] stations) {
+        ensureLoadedLocked();
+        mEntries.put(cell, new Entry(System.currentTimeMillis(), stations));
+        saveLocked();
+    }
+
+    private void ensureLoadedLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String value = prefs.getString(FM_SCAN_RESULT_CACHE, "");
+        // cell|time|station,station;... from the eldest to the most recent
+        for (String record : TextUtils.split(value, ";")) {
+            String[] fields = TextUtils.split(record, "\\|");
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                String[] items = TextUtils.split(fields[2], ",");
+                int[] stations = new int[items.length];
+                for (int i = 0; i < items.length; i++) {
+                    stations[i] = Integer.parseInt(items[i]);
+                }
+                mEntries.put(fields[0], new Entry(Long.parseLong(fields[1]), stations));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "ensureLoadedLocked, bad record " + record);
+            }
+        }
+    }
+
+    private void saveLocked() {
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            if (value.length() > 0) {
+                value.append(';');
+            }
+            value.append(e.getKey()).append('|').append(e.getValue().mTime).append('|');
+            int[] stations = e.getValue().mStations;
+            for (int i = 0; i < stations.length; i++) {
+                value.append(i == 0 ? "" : ",").append(stations[i]);
+            }
+        }
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(FM_SCAN_RESULT_CACHE, value.toString()).apply();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ScanResultCache{cells=" + mEntries.keySet() + "}";
+    }
+}
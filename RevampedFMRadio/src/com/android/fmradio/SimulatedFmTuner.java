@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A deterministic FM band for running and benchmarking without a chip.
+ * Stations broadcast a fixed PS and alternative frequency and a radio text
+ * changing every few seconds; tune and seek take a configured time, and
+ * the audio is a sine tone which the service renders instead of the tuner
+ * input.
+ *
+ * The service selects it with config_useSimulatedTuner. It depends on no
+ * Android class, the clock and the band plan are given, so it also runs on
+ * a plain JVM.
+ */
+class SimulatedFmTuner implements FmTuner {
+    /**
+     * Time source of the simulation
+     */
+    interface Clock {
+        /**
+         * @return Milliseconds since some fixed point, never going back
+         */
+        long elapsedRealtime();
+
+        /**
+         * Wait, ignoring interrupts
+         */
+        void sleep(long ms);
+    }
+
+    // The event bits of FmService
+    private static final short RDS_EVENT_PROGRAMNAME = 0x0008;
+    private static final short RDS_EVENT_LAST_RADIOTEXT = 0x0040;
+    private static final short RDS_EVENT_AF = 0x0080;
+    // Groups received before each part of the RDS data is complete
+    private static final int GROUPS_TO_PS = 4;
+    private static final int GROUPS_TO_AF = 8;
+    private static final int GROUPS_TO_RT = 16;
+    // Groups between two radio texts
+    private static final int GROUPS_PER_RT = 64;
+    // Time to receive a group
+    private static final int RDS_GROUP_MS = 100;
+
+    // 441Hz, a whole number of periods per table at 44.1kHz
+    private static final int TONE_SAMPLES = 100;
+    private static final short[] TONE = new short[TONE_SAMPLES];
+    static {
+        for (int i = 0; i < TONE_SAMPLES; i++) {
+            TONE[i] = (short) (Math.sin(2 * Math.PI * i / TONE_SAMPLES) * Short.MAX_VALUE / 4);
+        }
+    }
+
+    // Every station of every region, see #index
+    private static final BandPlan ALL_STATIONS = BandPlan.getAllStations();
+
+    // Per station, null or 0 where nothing broadcasts
+    private final byte[][] mPs = new byte[ALL_STATIONS.mChannelCount][];
+    private final int[] mAf = new int[ALL_STATIONS.mChannelCount];
+    private final long mTuneLatencyMs;
+    private final long mSeekStepLatencyMs;
+    private final Clock mClock;
+
+    // guarded by this
+    private boolean mIsPowerUp = false;
+    private boolean mIsRdsOn = false;
+    private boolean mIsLowPower = false;
+    private int mStation;
+    private volatile BandPlan mPlan;
+    private int mGroups = 0;
+    private long mLastReadTime = 0;
+    private volatile boolean mIsMuted = false;
+    private volatile boolean mIsStopRequested = false;
+
+    private final AudioRecorder.PcmSource mPcmSource = new AudioRecorder.PcmSource() {
+        private int mSample = 0;
+
+        @Override
+        public int read(ByteBuffer dst) {
+            ByteBuffer frames = dst.slice().order(ByteOrder.LITTLE_ENDIAN);
+            int count = frames.remaining() / 4;
+            for (int i = 0; i < count; i++) {
+                short value = mIsMuted ? 0 : TONE[mSample];
+                frames.putShort(value);
+                frames.putShort(value);
+                mSample = (mSample + 1) % TONE_SAMPLES;
+            }
+            dst.position(dst.position() + count * 4);
+            return count * 4;
+        }
+    };
+
+    /**
+     * @param plan The band until the region is set
+     * @param clock The time source
+     * @param stations The stations which broadcast
+     * @param alternatives The alternative frequency of each station, 0 for none
+     * @param tuneLatencyMs How long a tune takes
+     * @param seekStepLatencyMs How long a seek or scan takes per channel
+     */
+    SimulatedFmTuner(BandPlan plan, Clock clock, int[] stations, int[] alternatives,
+            long tuneLatencyMs, long seekStepLatencyMs) {
+        mPlan = plan;
+        mStation = plan.mDefaultStation;
+        mClock = clock;
+        for (int i = 0; i < stations.length; i++) {
+            if (!ALL_STATIONS.contains(stations[i])) {
+                continue;
+            }
+            int index = index(stations[i]);
+            String ps = "FM " + ALL_STATIONS.format(stations[i]);
+            mPs[index] = ps.getBytes(StandardCharsets.US_ASCII);
+            mAf[index] = i < alternatives.length ? alternatives[i] : 0;
+        }
+        mTuneLatencyMs = tuneLatencyMs;
+        mSeekStepLatencyMs = seekStepLatencyMs;
+    }
+
+    /**
+     * @return The audio of the current station, 16 bit stereo at 44.1kHz
+     */
+    AudioRecorder.PcmSource getPcmSource() {
+        return mPcmSource;
+    }
+
+    @Override
+    public boolean openDev() {
+        return true;
+    }
+
+    @Override
+    public boolean closeDev() {
+        return true;
+    }
+
+    @Override
+    public boolean powerUp(int station) {
+        synchronized (this) {
+            mIsPowerUp = true;
+            mIsLowPower = false;
+        }
+        return tune(station);
+    }
+
+    @Override
+    public synchronized boolean powerDown(int type) {
+        mIsPowerUp = false;
+        mIsRdsOn = false;
+        return true;
+    }
+
+    @Override
+    public boolean tune(int station) {
+        if (!mPlan.contains(station)) {
+            return false;
+        }
+        mClock.sleep(mTuneLatencyMs);
+        setStation(station);
+        return true;
+    }
+
+    @Override
+    public int seek(int station, boolean isUp) {
+        mIsStopRequested = false;
+        BandPlan plan = mPlan;
+        int count = plan.mChannelCount;
+        int channel = plan.toChannel(plan.snap(station));
+        for (int step = 1; step < count; step++) {
+            if (mIsStopRequested) {
+                break;
+            }
+            mClock.sleep(mSeekStepLatencyMs);
+            int next = plan.toStation(
+                    ((isUp ? channel + step : channel - step) % count + count) % count);
+            if (mPs[index(next)] != null) {
+                setStation(next);
+                return next;
+            }
+        }
+        return station;
+    }
+
+    @Override
+    public boolean setRegion(int band, int spacing, int deemphasis) {
+        BandPlan plan = BandPlan.fromNative(band, spacing);
+        if (plan == null) {
+            return false;
+        }
+        mPlan = plan;
+        return true;
+    }
+
+    @Override
+    public short[] autoScan() {
+        mIsStopRequested = false;
+        BandPlan plan = mPlan;
+        int count = plan.mChannelCount;
+        short[] found = new short[count];
+        int size = 0;
+        for (int channel = 0; channel < count; channel++) {
+            if (mIsStopRequested) {
+                return null;
+            }
+            mClock.sleep(mSeekStepLatencyMs);
+            int station = plan.toStation(channel);
+            if (mPs[index(station)] != null) {
+                found[size++] = (short) station;
+            }
+        }
+        short[] stations = new short[size];
+        System.arraycopy(found, 0, stations, 0, size);
+        return stations;
+    }
+
+    @Override
+    public boolean stopScan() {
+        mIsStopRequested = true;
+        return true;
+    }
+
+    @Override
+    public synchronized int setRds(boolean rdson) {
+        mIsRdsOn = rdson;
+        return 1;
+    }
+
+    @Override
+    public synchronized short readRds() {
+        if (!mIsPowerUp || !mIsRdsOn || mIsLowPower) {
+            return 0;
+        }
+        int index = index(mStation);
+        if (mPs[index] == null) {
+            return 0;
+        }
+        // one group per RDS_GROUP_MS, however often the driver is read
+        long now = mClock.elapsedRealtime();
+        int received = (int) Math.min((now - mLastReadTime) / RDS_GROUP_MS,
+                GROUPS_PER_RT);
+        if (received == 0) {
+            return 0;
+        }
+        mLastReadTime = now;
+        int before = mGroups;
+        mGroups += received;
+        short events = 0;
+        if (crossed(before, mGroups, GROUPS_TO_PS)) {
+            events |= RDS_EVENT_PROGRAMNAME;
+        }
+        if (mAf[index] != 0 && crossed(before, mGroups, GROUPS_TO_AF)) {
+            events |= RDS_EVENT_AF;
+        }
+        if (radioTextIndex(before) != radioTextIndex(mGroups)) {
+            events |= RDS_EVENT_LAST_RADIOTEXT;
+        }
+        return events;
+    }
+
+    @Override
+    public synchronized byte[] getPs() {
+        return mPs[index(mStation)];
+    }
+
+    @Override
+    public synchronized byte[] getLrText() {
+        int text = radioTextIndex(mGroups);
+        if (text < 0) {
+            return null;
+        }
+        return ("Now playing on " + ALL_STATIONS.format(mStation) + " #" + text)
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public synchronized short activeAf() {
+        return (short) mAf[index(mStation)];
+    }
+
+    @Override
+    public int setMute(boolean mute) {
+        mIsMuted = mute;
+        return 1;
+    }
+
+    @Override
+    public int isRdsSupport() {
+        return 1;
+    }
+
+    @Override
+    public int switchAntenna(int antenna) {
+        return 0;
+    }
+
+    @Override
+    public synchronized boolean setLowPowerMode() {
+        mIsLowPower = true;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setNormalPowerMode() {
+        mIsLowPower = false;
+        return true;
+    }
+
+    private synchronized void setStation(int station) {
+        mStation = station;
+        mGroups = 0;
+        mLastReadTime = mClock.elapsedRealtime();
+    }
+
+    private static int index(int station) {
+        return ALL_STATIONS.toChannel(station);
+    }
+
+    private static int radioTextIndex(int groups) {
+        return groups < GROUPS_TO_RT ? -1 : (groups - GROUPS_TO_RT) / GROUPS_PER_RT;
+    }
+
+    private static boolean crossed(int before, int after, int threshold) {
+        return before < threshold && after >= threshold;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.fmradio.FmStation.Station;
+
+/**
+ * Process-wide read-through cache of the StationList table, indexed by the
+ * band's channel grid, so hot paths look stations up without binder or
+ * SQLite work.
+ *
+ * The whole table is loaded on first use. Changes of a single frequency,
+ * notified on {@link FmStation#getFrequencyUri}, drop that channel only;
+ * any other change drops everything.
+ */
+class StationCache {
+    private static final String TAG = "StationCache";
+
+    private static final String[] PROJECTION = new String[] {
+        Station.FREQUENCY,
+        Station.IS_FAVORITE,
+        Station.STATION_NAME,
+        Station.PROGRAM_SERVICE,
+        Station.RADIO_TEXT,
+    };
+
+    // marks a channel known to have no row
+    private static final StationInfo ABSENT = new StationInfo(0, false, null, null, null);
+
+    private static StationCache sInstance;
+
+    /**
+     * Immutable snapshot of a station row
+     */
+    static class StationInfo {
+        final int mFrequency;
+        final boolean mIsFavorite;
+        final String mStationName;
+        final String mProgramService;
+        final String mRadioText;
+
+        StationInfo(int frequency, boolean isFavorite, String stationName,
+                String programService, String radioText) {
+            mFrequency = frequency;
+            mIsFavorite = isFavorite;
+            mStationName = stationName;
+            mProgramService = programService;
+            mRadioText = radioText;
+        }
+
+        /**
+         * @return The name given by the user, the PS otherwise
+         */
+        String getDisplayName() {
+            return TextUtils.isEmpty(mStationName) ? mProgramService : mStationName;
+        }
+    }
+
+    private final Context mContext;
+    // Indexes the stations of every region, see BandPlan#getAllStations
+    private static final BandPlan ALL_STATIONS = BandPlan.getAllStations();
+
+    // channel -> station, null if unknown, guarded by this
+    private final StationInfo[] mChannels = new StationInfo[ALL_STATIONS.mChannelCount];
+    private boolean mLoaded = false;
+
+    // Statistics, guarded by this
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mInvalidations = 0;
+
+    private StationCache(Context context) {
+        mContext = context;
+        mContext.getContentResolver().registerContentObserver(Station.CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        int frequency = FmStation.parseFrequencyUri(uri);
+                        if (frequency > 0) {
+                            invalidate(frequency);
+                        } else {
+                            invalidateAll();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @param context Any context, the application context is kept
+     *
+     * @return The process-wide cache
+     */
+    static synchronized StationCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StationCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Look a station up
+     *
+     * @param frequency The station frequency
+     *
+     * @return The station, null if it is not in database
+     */
+    StationInfo getStation(int frequency) {
+        if (!ALL_STATIONS.contains(frequency)) {
+            // not on the grid, never cached
+            synchronized (this) {
+                mMisses++;
+            }
+            return queryStation(frequency);
+        }
+        int channel = ALL_STATIONS.toChannel(frequency);
+        synchronized (this) {
+            if (mLoaded && mChannels[channel] != null) {
+                mHits++;
+                StationInfo info = mChannels[channel];
+                return info == ABSENT ? null : info;
+            }
+            mMisses++;
+            if (!mLoaded) {
+                loadAllLocked();
+            } else {
+                StationInfo info = queryStation(frequency);
+                mChannels[channel] = info == null ? ABSENT : info;
+            }
+            StationInfo info = mChannels[channel];
+            return info == ABSENT ? null : info;
+        }
+    }
+
+    /**
+     * List the favorite stations
+     *
+     * @return The favorite frequencies of the current region, in band order
+     */
+    synchronized int[] getFavoriteStations() {
+        // a single query rather than one per dropped channel
+        if (!mLoaded || hasDroppedChannelLocked()) {
+            mMisses++;
+            loadAllLocked();
+        } else {
+            mHits++;
+        }
+        // stations saved under another region may fall between its channels
+        BandPlan plan = BandPlan.getCurrent();
+        int count = 0;
+        int[] favorites = new int[mChannels.length];
+        for (int i = 0; i < mChannels.length; i++) {
+            if (mChannels[i].mIsFavorite && plan.isOnGrid(mChannels[i].mFrequency)) {
+                favorites[count++] = mChannels[i].mFrequency;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(favorites, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Forget one station, called after writing it
+     *
+     * @param frequency The station frequency
+     */
+    void invalidate(int frequency) {
+        if (!ALL_STATIONS.contains(frequency)) {
+            return;
+        }
+        synchronized (this) {
+            mChannels[ALL_STATIONS.toChannel(frequency)] = null;
+            mInvalidations++;
+        }
+    }
+
+    /**
+     * Forget every station, called after writing more than one
+     */
+    synchronized void invalidateAll() {
+        mLoaded = false;
+        mInvalidations++;
+    }
+
+    private boolean hasDroppedChannelLocked() {
+        for (int i = 0; i < mChannels.length; i++) {
+            if (mChannels[i] == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void loadAllLocked() {
+        for (int i = 0; i < mChannels.length; i++) {
+            mChannels[i] = ABSENT;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Station.CONTENT_URI, PROJECTION,
+                    null, null, null);
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                StationInfo info = readStation(cursor);
+                if (ALL_STATIONS.contains(info.mFrequency)) {
+                    mChannels[ALL_STATIONS.toChannel(info.mFrequency)] = info;
+                }
+            }
+            mLoaded = true;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        Log.d(TAG, "loadAllLocked, " + this);
+    }
+
+    private StationInfo queryStation(int frequency) {
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Station.CONTENT_URI, PROJECTION,
+                    Station.FREQUENCY + "=?", new String[] { String.valueOf(frequency) },
+                    null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return readStation(cursor);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
+    private static StationInfo readStation(Cursor cursor) {
+        return new StationInfo(cursor.getInt(0), cursor.getInt(1) > 0, cursor.getString(2),
+                cursor.getString(3), cursor.getString(4));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StationCache{loaded=" + mLoaded + ", hits=" + mHits + ", misses=" + mMisses
+                + ", invalidations=" + mInvalidations + "}";
+    }
+}
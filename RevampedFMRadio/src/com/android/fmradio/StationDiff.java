@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.util.BitSet;
+
+/**
+ * Difference between the stations stored in database and a scan result,
+ * computed in linear time with bitsets indexed by station, so stations of
+ * any region compare.
+ */
+class StationDiff {
+    // searched stations to delete, ascending
+    final int[] mDeletes;
+    // stations to insert, ascending
+    final int[] mInserts;
+    // number of distinct valid stations in the scan result
+    final int mScanned;
+
+    private StationDiff(int[] deletes, int[] inserts, int scanned) {
+        mDeletes = deletes;
+        mInserts = inserts;
+        mScanned = scanned;
+    }
+
+    /**
+     * Compute what to delete and insert so the searched stations match a
+     * scan result. Favorites are never deleted nor inserted again.
+     *
+     * @param searched The stored stations which are not favorite
+     * @param favorites The stored favorite stations
+     * @param scanned The scan result, invalid stations are skipped
+     * @param clean Whether every searched station must be deleted, otherwise
+     *        searched stations found again are kept
+     *
+     * @return The difference
+     */
+    static StationDiff compute(int[] searched, int[] favorites, int[] scanned, boolean clean) {
+        BitSet scannedSet = toChannels(scanned);
+        BitSet searchedSet = toChannels(searched);
+
+        BitSet deletes = new BitSet();
+        if (clean) {
+            deletes.or(searchedSet);
+        } else if (!scannedSet.isEmpty()) {
+            // an empty scan result keeps the searched stations
+            deletes.or(searchedSet);
+            deletes.andNot(scannedSet);
+        }
+
+        BitSet inserts = (BitSet) scannedSet.clone();
+        inserts.andNot(toChannels(favorites));
+        if (!clean) {
+            inserts.andNot(searchedSet);
+        }
+        return new StationDiff(toStations(deletes), toStations(inserts),
+                scannedSet.cardinality());
+    }
+
+    /**
+     * @return Whether applying the difference changes nothing
+     */
+    boolean isEmpty() {
+        return mDeletes.length == 0 && mInserts.length == 0;
+    }
+
+    private static BitSet toChannels(int[] stations) {
+        BandPlan all = BandPlan.getAllStations();
+        BitSet channels = new BitSet(all.mChannelCount);
+        for (int station : stations) {
+            if (all.contains(station)) {
+                channels.set(all.toChannel(station));
+            }
+        }
+        return channels;
+    }
+
+    private static int[] toStations(BitSet channels) {
+        int[] stations = new int[channels.cardinality()];
+        int i = 0;
+        for (int c = channels.nextSetBit(0); c >= 0; c = channels.nextSetBit(c + 1)) {
+            stations[i++] = BandPlan.getAllStations().toStation(c);
+        }
+        return stations;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio.dialogs;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ArrayAdapter;
+import android.widget.FrameLayout;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.android.fmradio.FmStation;
+import com.android.fmradio.FmUtils;
+import com.android.fmradio.R;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Show the program names and radio texts a station sent, newest first. The
+ * history is read a page at a time on a worker thread while the list
+ * scrolls.
+ */
+public class FmRdsHistoryDialog extends DialogFragment {
+    private static final String STATION_FREQ = "station_freq";
+    // Values read per query
+    private static final int PAGE_SIZE = 20;
+
+    private int mStationFreq;
+    private ArrayAdapter<String> mAdapter = null;
+    private DateFormat mTimeFormat = null;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Paging state, only used on the main thread
+    private boolean mIsHistoryEnd = false;
+    private boolean mIsLoading = false;
+    // Key of the last value shown, the next page starts below it
+    private long mLastTime = Long.MAX_VALUE;
+    private int mLastType = 0;
+    private long mLastSequence = 0;
+    private TextView mEmptyView = null;
+
+    /**
+     * Values read by one query, and the key of the last one
+     */
+    private static class Page {
+        final ArrayList<String> mLines = new ArrayList<String>(PAGE_SIZE);
+        long mLastTime;
+        int mLastType;
+        long mLastSequence;
+    }
+
+    /**
+     * Create RDS history dialog instance
+     *
+     * @param stationFreq The station frequency
+     * @return RDS history dialog
+     */
+    public static FmRdsHistoryDialog newInstance(int stationFreq) {
+        FmRdsHistoryDialog fragment = new FmRdsHistoryDialog();
+        Bundle args = new Bundle(1);
+        args.putInt(STATION_FREQ, stationFreq);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        mStationFreq = getArguments().getInt(STATION_FREQ);
+        mTimeFormat = android.text.format.DateFormat.getTimeFormat(getActivity());
+        mAdapter = new ArrayAdapter<String>(getActivity(),
+                android.R.layout.simple_list_item_1);
+        mIsHistoryEnd = false;
+        mIsLoading = false;
+        mLastTime = Long.MAX_VALUE;
+
+        ListView listView = new ListView(getActivity());
+        listView.setAdapter(mAdapter);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                    int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount) {
+                    loadNextPage();
+                }
+            }
+        });
+        // shown once the first page turns out empty
+        mEmptyView = (TextView) LayoutInflater.from(getActivity())
+                .inflate(android.R.layout.simple_list_item_1, null);
+        mEmptyView.setVisibility(View.GONE);
+        FrameLayout content = new FrameLayout(getActivity());
+        content.addView(listView);
+        content.addView(mEmptyView);
+        loadNextPage();
+
+        return new AlertDialog.Builder(getActivity())
+                .setTitle(getString(R.string.rds_history_title,
+                        FmUtils.formatStation(mStationFreq)))
+                .setView(content)
+                .setPositiveButton(android.R.string.ok, null)
+                .create();
+    }
+
+    @Override
+    public void onDestroy() {
+        mHandler.removeCallbacksAndMessages(null);
+        super.onDestroy();
+    }
+
+    /**
+     * Read the next page of the history on a worker thread, at most one at
+     * a time, and append it to the list
+     */
+    private void loadNextPage() {
+        if (mIsHistoryEnd || mIsLoading) {
+            return;
+        }
+        mIsLoading = true;
+        final Context context = getActivity().getApplicationContext();
+        final DateFormat timeFormat = mTimeFormat;
+        final int stationFreq = mStationFreq;
+        final long lastTime = mLastTime;
+        final int lastType = mLastType;
+        final long lastSequence = mLastSequence;
+        new Thread("FmRdsHistoryPage") {
+            @Override
+            public void run() {
+                final Page page = readPage(context, timeFormat, stationFreq,
+                        lastTime, lastType, lastSequence);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(page);
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private static Page readPage(Context context, DateFormat timeFormat, int stationFreq,
+            long lastTime, int lastType, long lastSequence) {
+        Page page = new Page();
+        Cursor cursor = null;
+        try {
+            cursor = FmStation.getRdsHistory(context, stationFreq, lastTime, lastType,
+                    lastSequence, PAGE_SIZE);
+            if (cursor != null) {
+                int typeIndex = cursor.getColumnIndex(FmStation.RdsHistory.TYPE);
+                int textIndex = cursor.getColumnIndex(FmStation.RdsHistory.TEXT);
+                int timeIndex = cursor.getColumnIndex(FmStation.RdsHistory.TIME);
+                int sequenceIndex = cursor.getColumnIndex(FmStation.RdsHistory.SEQUENCE);
+                while (cursor.moveToNext()) {
+                    long time = cursor.getLong(timeIndex);
+                    page.mLines.add(timeFormat.format(new Date(time))
+                            + "  " + cursor.getString(textIndex));
+                    page.mLastTime = time;
+                    page.mLastType = cursor.getInt(typeIndex);
+                    page.mLastSequence = cursor.getLong(sequenceIndex);
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return page;
+    }
+
+    private void onPageLoaded(Page page) {
+        mIsLoading = false;
+        mIsHistoryEnd = page.mLines.size() < PAGE_SIZE;
+        if (!page.mLines.isEmpty()) {
+            mLastTime = page.mLastTime;
+            mLastType = page.mLastType;
+            mLastSequence = page.mLastSequence;
+            mAdapter.addAll(page.mLines);
+        } else if (mAdapter.isEmpty()) {
+            mEmptyView.setText(R.string.rds_history_empty);
+            mEmptyView.setVisibility(View.VISIBLE);
+        }
+    }
+}